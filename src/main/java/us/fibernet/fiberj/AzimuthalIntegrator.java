@@ -0,0 +1,200 @@
+/*
+ * Copyright Wen Bian. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list
+ *   of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer listed in this license in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * - Neither the name of the copyright holders nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package us.fibernet.fiberj;
+
+import java.util.EnumMap;
+
+/**
+ * Azimuthal integration of a pattern to a 1D profile: the mean intensity of the unmasked
+ * pixels in each bin of radius, 2theta, q or, around a ring, the azimuth, optionally
+ * restricted to a range of a second coordinate such as a sector. Or, regrouping by both
+ * a radial coordinate and the azimuth chi, to a 2D "cake" image with a row per chi bin.
+ *
+ * Bin maps (see BinMap) are kept for the current geometry and shared by both. The lookup
+ * tables (see BinLookup) of the last profile and of the last cake are kept while their
+ * bins stay the same, so each later frame of a series costs one pass over the table.
+ */
+public class AzimuthalIntegrator {
+
+    /** an integrated profile, reusable from frame to frame */
+    public static final class Profile {
+        private final double[] position, intensity, error, count;
+        private final double[] signal, variance;
+
+        public Profile(int size) {
+            position = new double[size];
+            intensity = new double[size];
+            error = new double[size];
+            count = new double[size];
+            signal = new double[size];
+            variance = new double[size];
+        }
+
+        public int getSize()             { return position.length; }
+
+        /** middle of each bin */
+        public double[] getPosition()    { return position;  }
+
+        /** mean intensity of each bin, 0 for a bin with no pixels */
+        public double[] getIntensity()   { return intensity; }
+
+        /** standard error of the mean, assuming Poisson counts */
+        public double[] getError()       { return error;     }
+
+        /** number of pixels in each bin, split pixels counting in part */
+        public double[] getCount()       { return count;     }
+
+        /**
+         * write the mean intensities, rounded, into dst, a row for each bin of the second
+         * coordinate
+         *
+         * @param empty  value of bins with no pixels
+         */
+        public void toImage(final PixelBuffer dst, final int empty) {
+            final int width = dst.getWidth();
+            if(width * dst.getHeight() != intensity.length) {
+                throw new IllegalArgumentException("buffer size does not match the profile");
+            }
+            ParallelUtil.forEachBand(dst.getHeight(), MIN_BAND_ROWS, new ParallelUtil.BandTask() {
+                public void run(int from, int to) {
+                    int[] out = dst.getArray();
+                    for(int y = from; y < to; y++) {
+                        for(int x = 0, k = y * width, p = dst.index(0, y); x < width; x++, k++, p++) {
+                            out[p] = count[k] > 0 ? (int) Math.round(intensity[k]) : empty;
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private static final int MIN_BAND_ROWS = 16;   // fewest cake rows worth a thread
+
+    private Pattern myPattern;
+    private ReciprocalGeometry geometry;   // the maps are for
+    private EnumMap<BinMap.Unit, BinMap> maps = new EnumMap<BinMap.Unit, BinMap>(BinMap.Unit.class);
+    private BinLookup lookup;              // last one, reused while it matches
+    private BinLookup cakeLookup;          // likewise, apart so profiles do not evict it
+
+    public AzimuthalIntegrator(Pattern pattern) {
+        myPattern = pattern;
+    }
+
+    /**
+     * @return  the bin map of a unit for the current geometry, built on first use
+     * @throws IllegalStateException  if the unit needs reciprocal parameters not defined
+     */
+    public synchronized BinMap getBinMap(BinMap.Unit unit) {
+        if(unit.isReciprocal() && !myPattern.isParameterDefined(false)) {
+            throw new IllegalStateException("reciprocal parameters not defined");
+        }
+        ReciprocalGeometry g = new ReciprocalGeometry(myPattern);
+        if(!g.equals(geometry)) {
+            maps.clear();
+            lookup = null;
+            cakeLookup = null;
+            geometry = g;
+        }
+        BinMap m = maps.get(unit);
+        if(m == null) {
+            m = BinMap.build(geometry, unit);
+            maps.put(unit, m);
+        }
+        return m;
+    }
+
+    /**
+     * @return  the lookup table for these bins, see BinLookup.build()
+     */
+    public synchronized BinLookup getLookup(BinMap.Unit unit, int count, double min, double max,
+                                            BinMap.Unit secondUnit, int secondCount,
+                                            double secondMin, double secondMax, boolean split) {
+        BinMap map = getBinMap(unit);
+        BinMap secondMap = secondUnit == null ? null : getBinMap(secondUnit);
+        if(lookup == null ||
+           !lookup.matches(map, count, min, max, secondMap, secondCount, secondMin, secondMax, split)) {
+            lookup = BinLookup.build(map, count, min, max, secondMap, secondCount, secondMin, secondMax, split);
+        }
+        return lookup;
+    }
+
+    /**
+     * @return  the lookup table for a cake of count bins over [min, max) of unit by
+     *          chiCount bins of the azimuth over [0, 360)
+     */
+    public synchronized BinLookup getCakeLookup(BinMap.Unit unit, int count, double min, double max,
+                                                int chiCount, boolean split) {
+        BinMap map = getBinMap(unit);
+        BinMap chiMap = getBinMap(BinMap.Unit.AZIMUTH);
+        if(cakeLookup == null || !cakeLookup.matches(map, count, min, max, chiMap, chiCount, 0, 360, split)) {
+            cakeLookup = BinLookup.build(map, count, min, max, chiMap, chiCount, 0, 360, split);
+        }
+        return cakeLookup;
+    }
+
+    /**
+     * integrate a frame with this pattern's size and geometry over all of it, skipping
+     * the pixels masked in the pattern
+     */
+    public Profile integrate(PixelBuffer frame, BinMap.Unit unit, int count, double min, double max,
+                             boolean split) {
+        return integrate(frame, unit, count, min, max, null, 0, 0, split);
+    }
+
+    /**
+     * integrate a frame over the pixels in [windowMin, windowMax) of windowUnit, e.g., a
+     * sector of azimuths, or over all of it if windowUnit is null
+     */
+    public Profile integrate(PixelBuffer frame, BinMap.Unit unit, int count, double min, double max,
+                             BinMap.Unit windowUnit, double windowMin, double windowMax, boolean split) {
+        Profile profile = new Profile(count);
+        integrate(frame, getLookup(unit, count, min, max, windowUnit, 1, windowMin, windowMax, split), profile);
+        return profile;
+    }
+
+    /**
+     * integrate a frame with a lookup table into profile, which may be reused frame after
+     * frame. Positions are those of the first coordinate; for a table with bins of a
+     * second coordinate, profile holds a row of bins for each, see Profile.toImage()
+     */
+    public void integrate(PixelBuffer frame, BinLookup table, Profile profile) {
+        int n = table.getBinCount();
+        if(profile.getSize() != n) {
+            throw new IllegalArgumentException("profile size does not match the lookup table");
+        }
+
+        table.integrate(frame, myPattern.getMask(), profile.signal, profile.variance, profile.count);
+        for(int i = 0; i < n; i++) {
+            double c = profile.count[i];
+            profile.position[i] = table.getPosition(i % table.getCount());
+            profile.intensity[i] = c > 0 ? profile.signal[i] / c : 0;
+            profile.error[i] = c > 0 ? Math.sqrt(profile.variance[i]) / c : 0;
+        }
+    }
+
+} // class AzimuthalIntegrator
@@ -0,0 +1,296 @@
+/*
+ * Copyright Wen Bian. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list
+ *   of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer listed in this license in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * - Neither the name of the copyright holders nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package us.fibernet.fiberj;
+
+/**
+ * A sparse lookup table from bins to the pixels that fall in them, with the fraction of
+ * each pixel that does, in compressed rows: the pixels of bin b are pixel[start[b]] to
+ * pixel[start[b + 1] - 1].
+ *
+ * Bins split the range of one coordinate (see BinMap) and, optionally, of a second one,
+ * bin (i, j) being b = j * count + i. A single bin of the second coordinate restricts
+ * a profile to, e.g., a sector. With splitting, a pixel is spread over the bins its range
+ * overlaps, in proportion to the overlap; without, it goes whole to the bin of its
+ * middle. Building is the expensive part and is done once per geometry; integrating a
+ * frame is then a pass over the table, in parallel bands of bins, each bin summed by one
+ * thread so there is no write contention.
+ */
+public final class BinLookup {
+
+    private static final int MIN_BAND_BINS = 16;   // fewest bins worth a thread
+
+    private final BinMap map, secondMap;
+    private final int count, secondCount;
+    private final double min, max, secondMin, secondMax;
+    private final boolean split;
+
+    private int[] start;
+    private int[] pixel;
+    private float[] fraction;
+
+    private BinLookup(BinMap map, int count, double min, double max,
+                      BinMap secondMap, int secondCount, double secondMin, double secondMax, boolean split) {
+        this.map = map;
+        this.count = count;
+        this.min = min;
+        this.max = max;
+        this.secondMap = secondMap;
+        this.secondCount = secondCount;
+        this.secondMin = secondMin;
+        this.secondMax = secondMax;
+        this.split = split;
+    }
+
+    /**
+     * build a table of count bins over [min, max) of a coordinate
+     */
+    public static BinLookup build(BinMap map, int count, double min, double max, boolean split) {
+        return build(map, count, min, max, null, 1, 0, 0, split);
+    }
+
+    /**
+     * build a table of count x secondCount bins over [min, max) of a coordinate and
+     * [secondMin, secondMax) of a second one of the same geometry
+     *
+     * @param secondMap  null for no second coordinate, secondCount must be 1 then
+     */
+    public static BinLookup build(final BinMap map, final int count, final double min, final double max,
+                                  final BinMap secondMap, final int secondCount,
+                                  final double secondMin, final double secondMax, final boolean split) {
+        if(count < 1 || secondCount < 1 || !(max > min) || (secondMap != null && !(secondMax > secondMin))) {
+            throw new IllegalArgumentException("invalid bins");
+        }
+        if(secondMap == null ? secondCount != 1 : !secondMap.getGeometry().equals(map.getGeometry())) {
+            throw new IllegalArgumentException("bin maps do not match");
+        }
+
+        final BinLookup t = new BinLookup(map, count, min, max, secondMap, secondCount, secondMin, secondMax, split);
+        final int width = map.getWidth();
+        final int height = map.getHeight();
+        final int bins = count * secondCount;
+        final int nchunks = Math.max(1, Math.min(ParallelUtil.getThreadCount(), height));
+        final int rows = (height + nchunks - 1) / nchunks;
+        final int[][] next = new int[nchunks][];   // entries per bin, then where each chunk writes
+
+        // count the entries of each chunk of rows, fill in the chunk's part of each bin
+        ParallelUtil.BandTask pass = new ParallelUtil.BandTask() {
+            public void run(int from, int to) {
+                for(int c = from; c < to; c++) {
+                    boolean filling = next[c] != null;
+                    int[] slot = filling ? next[c] : new int[bins];
+                    int[] bins1 = new int[2 * count + 6];
+                    float[] fractions1 = new float[2 * count + 6];
+                    int[] bins2 = new int[2 * secondCount + 6];
+                    float[] fractions2 = new float[2 * secondCount + 6];
+
+                    for(int k = c * rows * width; k < Math.min(height, (c + 1) * rows) * width; k++) {
+                        int n2 = 1;
+                        bins2[0] = 0;
+                        fractions2[0] = 1;
+                        if(secondMap != null) {
+                            n2 = t.overlap(secondMap, k, secondCount, secondMin, secondMax, bins2, fractions2);
+                            if(n2 == 0) {
+                                continue;
+                            }
+                        }
+                        int n1 = t.overlap(map, k, count, min, max, bins1, fractions1);
+                        for(int j = 0; j < n2; j++) {
+                            for(int i = 0; i < n1; i++) {
+                                int b = bins2[j] * count + bins1[i];
+                                if(filling) {
+                                    t.pixel[slot[b]] = k;
+                                    t.fraction[slot[b]] = fractions1[i] * fractions2[j];
+                                }
+                                slot[b]++;
+                            }
+                        }
+                    }
+                    next[c] = slot;
+                }
+            }
+        };
+
+        ParallelUtil.forEach(nchunks, pass);
+
+        t.start = new int[bins + 1];
+        int total = 0;
+        for(int b = 0; b < bins; b++) {
+            t.start[b] = total;
+            for(int c = 0; c < nchunks; c++) {
+                int n = next[c][b];
+                next[c][b] = total;
+                total += n;
+            }
+        }
+        t.start[bins] = total;
+        t.pixel = new int[total];
+        t.fraction = new float[total];
+
+        ParallelUtil.forEach(nchunks, pass);
+        return t;
+    }
+
+    // the bins of [lo, hi) in count steps the range of pixel k overlaps, and the fraction
+    // of the range in each
+    private int overlap(BinMap m, int k, int n, double lo, double hi, int[] bins, float[] fractions) {
+        double a = m.getLow()[k];
+        double b = m.getHigh()[k];
+        double scale = n / (hi - lo);
+        int shifts = m.getUnit().isPeriodic() ? 1 : 0;
+        int found = 0;
+
+        if(!split || !(b > a)) {
+            double v = split ? a : (a + b) / 2;
+            for(int s = -shifts; s <= shifts; s++) {
+                double u = v + s * 360;
+                if(u >= lo && u < hi) {
+                    bins[0] = Math.min(n - 1, (int) ((u - lo) * scale));
+                    fractions[0] = 1;
+                    return 1;
+                }
+            }
+            return 0;
+        }
+
+        for(int s = -shifts; s <= shifts; s++) {
+            double from = Math.max(a + s * 360, lo);
+            double to = Math.min(b + s * 360, hi);
+            if(!(to > from)) {
+                continue;
+            }
+            int last = Math.min(n - 1, (int) ((to - lo) * scale));
+            for(int i = (int) ((from - lo) * scale); i <= last; i++) {
+                double part = Math.min(to, lo + (i + 1) / scale) - Math.max(from, lo + i / scale);
+                if(part > 0) {
+                    bins[found] = i;
+                    fractions[found++] = (float) (part / (b - a));
+                }
+            }
+        }
+        return found;
+    }
+
+    public BinMap getMap()           { return map;          }
+    public BinMap getSecondMap()     { return secondMap;    }
+    public int getCount()            { return count;        }
+    public int getSecondCount()      { return secondCount;  }
+    public int getBinCount()         { return start.length - 1; }
+    public int getEntryCount()       { return pixel.length; }
+    public boolean isSplit()         { return split;        }
+
+    /** @return  the middle of bin i of the (first) coordinate */
+    public double getPosition(int i) {
+        return min + (i + 0.5) * (max - min) / count;
+    }
+
+    /** @return  the middle of bin j of the second coordinate */
+    public double getSecondPosition(int j) {
+        return secondMin + (j + 0.5) * (secondMax - secondMin) / secondCount;
+    }
+
+    /**
+     * @return  if the table was built with these maps and bins
+     */
+    public boolean matches(BinMap map, int count, double min, double max,
+                           BinMap secondMap, int secondCount, double secondMin, double secondMax, boolean split) {
+        return this.map == map && this.count == count && this.min == min && this.max == max &&
+               this.secondMap == secondMap && this.secondCount == secondCount &&
+               this.secondMin == secondMin && this.secondMax == secondMax && this.split == split;
+    }
+
+    /**
+     * sum a frame into the bins: signal the sum of fraction x value, variance that of
+     * fraction^2 x value (Poisson counts) and norm that of the fractions, i.e., the number
+     * of pixels in the bin
+     *
+     * @param mask  null, or the size of the frame: pixels with a non-zero mask are skipped
+     */
+    public void integrate(PixelBuffer frame, byte[][] mask,
+                          final double[] signal, final double[] variance, final double[] norm) {
+        final int width = map.getWidth();
+        final int height = map.getHeight();
+        final int bins = getBinCount();
+        if(frame.getWidth() != width || frame.getHeight() != height ||
+           signal.length < bins || variance.length < bins || norm.length < bins) {
+            throw new IllegalArgumentException("buffer size does not match the lookup table");
+        }
+        if(mask != null && (mask.length != height || (height > 0 && mask[0].length != width))) {
+            throw new IllegalArgumentException("mask size does not match data");
+        }
+        if(frame.getStride() != width) {
+            frame = frame.copy();
+        }
+
+        final int[] in = frame.getArray();
+        final int offset = frame.getOffset();
+        final byte[] masked = flatten(mask, width, height);
+        final int[] first = start;
+        final int[] pixels = pixel;
+        final float[] fractions = fraction;
+
+        ParallelUtil.forEachBand(bins, MIN_BAND_BINS, new ParallelUtil.BandTask() {
+            public void run(int from, int to) {
+                for(int b = from; b < to; b++) {
+                    double s = 0, v = 0, n = 0;
+                    for(int e = first[b], end = first[b + 1]; e < end; e++) {
+                        int k = pixels[e];
+                        if(masked != null && masked[k] != 0) {
+                            continue;
+                        }
+                        double f = fractions[e];
+                        double value = in[offset + k];
+                        double fv = f * value;
+                        s += fv;
+                        v += value > 0 ? f * fv : 0;
+                        n += f;
+                    }
+                    signal[b] = s;
+                    variance[b] = v;
+                    norm[b] = n;
+                }
+            }
+        });
+    }
+
+    // the mask row after row, as the table indexes pixels
+    private static byte[] flatten(final byte[][] mask, final int width, int height) {
+        if(mask == null) {
+            return null;
+        }
+        final byte[] flat = new byte[width * height];
+        ParallelUtil.forEachBand(height, 64, new ParallelUtil.BandTask() {
+            public void run(int from, int to) {
+                for(int y = from; y < to; y++) {
+                    System.arraycopy(mask[y], 0, flat, y * width, width);
+                }
+            }
+        });
+        return flat;
+    }
+
+} // class BinLookup
@@ -0,0 +1,199 @@
+/*
+ * Copyright Wen Bian. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list
+ *   of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer listed in this license in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * - Neither the name of the copyright holders nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package us.fibernet.fiberj;
+
+/**
+ * The range of a coordinate, e.g., 2theta or the azimuth, over the area of each pixel of a
+ * pattern: the bin map an integration distributes pixels to bins by (see BinLookup).
+ *
+ * A range is taken from the coordinate at the four pixel corners. Where that falls short,
+ * a pixel on a row or column through the center, or the one holding the center, it is
+ * widened to the nearest edge point or to the center. Azimuth ranges run counter
+ * clockwise from low, which is in [0, 360); high may exceed 360 for a pixel across the
+ * 0 degree direction. Built once per geometry and unit, in parallel bands of rows.
+ */
+public final class BinMap {
+
+    /** the coordinate a pattern is binned by */
+    public enum Unit {
+        RADIUS("r (pixel)"),
+        TWO_THETA("2theta (degree)"),
+        Q("q (1/angstrom)"),
+        AZIMUTH("chi (degree)");
+
+        private final String label;
+
+        Unit(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        /** if the unit is an angle about the center, where 360 is 0 */
+        public boolean isPeriodic() {
+            return this == AZIMUTH;
+        }
+
+        /** if the unit needs the reciprocal parameters, not only the center */
+        public boolean isReciprocal() {
+            return this == TWO_THETA || this == Q;
+        }
+    }
+
+    private static final int MIN_BAND_ROWS = 16;   // fewest rows worth a thread
+
+    private final ReciprocalGeometry geometry;
+    private final Unit unit;
+    private final float[] low, high;
+    private double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+
+    private BinMap(ReciprocalGeometry geometry, Unit unit) {
+        this.geometry = geometry;
+        this.unit = unit;
+        int size = geometry.getWidth() * geometry.getHeight();
+        low = new float[size];
+        high = new float[size];
+    }
+
+    /**
+     * compute the map of a unit for a geometry
+     */
+    public static BinMap build(final ReciprocalGeometry geometry, final Unit unit) {
+        final BinMap m = new BinMap(geometry, unit);
+        final int width = geometry.getWidth();
+
+        ParallelUtil.forEachBand(geometry.getHeight(), MIN_BAND_ROWS, new ParallelUtil.BandTask() {
+            public void run(int from, int to) {
+                double[] rzda = new double[4];
+                double[] top = new double[width + 1];
+                double[] bottom = new double[width + 1];
+                double lowest = Double.MAX_VALUE, highest = -Double.MAX_VALUE;
+
+                for(int x = 0; x <= width; x++) {
+                    top[x] = m.value(x - 0.5, from - 0.5, rzda);
+                }
+                for(int y = from; y < to; y++) {
+                    for(int x = 0; x <= width; x++) {
+                        bottom[x] = m.value(x - 0.5, y + 0.5, rzda);
+                    }
+                    for(int x = 0, k = y * width; x < width; x++, k++) {
+                        double a = top[x], b = top[x + 1], c = bottom[x], d = bottom[x + 1];
+                        double lo = Math.min(Math.min(a, b), Math.min(c, d));
+                        double hi = Math.max(Math.max(a, b), Math.max(c, d));
+                        if(unit.isPeriodic()) {
+                            if(m.holdsCenter(x, y)) {   // all around
+                                lo = 0;
+                                hi = 360;
+                            }
+                            else if(hi - lo > 180) {    // across 0 degree, unwrap
+                                a = a < 180 ? a + 360 : a;
+                                b = b < 180 ? b + 360 : b;
+                                c = c < 180 ? c + 360 : c;
+                                d = d < 180 ? d + 360 : d;
+                                lo = Math.min(Math.min(a, b), Math.min(c, d));
+                                hi = Math.max(Math.max(a, b), Math.max(c, d));
+                            }
+                        }
+                        else {
+                            lo = Math.min(lo, m.edgeMinimum(x, y, rzda));
+                        }
+                        m.low[k] = (float) lo;
+                        m.high[k] = (float) hi;
+                        lowest = Math.min(lowest, lo);
+                        highest = Math.max(highest, hi);
+                    }
+                    double[] t = top;
+                    top = bottom;
+                    bottom = t;
+                }
+                m.mergeRange(lowest, highest);
+            }
+        });
+
+        return m;
+    }
+
+    private synchronized void mergeRange(double lo, double hi) {
+        min = Math.min(min, lo);
+        max = Math.max(max, hi);
+    }
+
+    public ReciprocalGeometry getGeometry()  { return geometry;      }
+    public Unit getUnit()                     { return unit;          }
+    public int getWidth()                     { return geometry.getWidth();  }
+    public int getHeight()                    { return geometry.getHeight(); }
+    public float[] getLow()                   { return low;           }
+    public float[] getHigh()                  { return high;          }
+
+    /** smallest low and largest high over the pattern */
+    public synchronized double getMin()       { return min; }
+    public synchronized double getMax()       { return max; }
+
+    // the coordinate at point (x, y)
+    private double value(double x, double y, double[] rzda) {
+        switch(unit) {
+            case RADIUS:
+                double dx = x - geometry.getCenterX();
+                double dy = y - geometry.getCenterY();
+                return Math.sqrt(dx * dx + dy * dy);
+            case AZIMUTH:
+                return geometry.azimuth(x, y);
+            default:
+                geometry.xy2RZDA(x, y, rzda);
+                if(unit == Unit.Q) {
+                    return 2 * Math.PI * rzda[2];
+                }
+                return 2 * Math.toDegrees(Math.asin(Math.min(1, geometry.getWavelen() * rzda[2] / 2)));
+        }
+    }
+
+    // a radial coordinate is smallest at the center, which the corners miss for a pixel
+    // holding it or on a row or column through it
+    private double edgeMinimum(int x, int y, double[] rzda) {
+        double cx = geometry.getCenterX(), cy = geometry.getCenterY();
+        boolean spansX = Math.abs(cx - x) <= 0.5;
+        boolean spansY = Math.abs(cy - y) <= 0.5;
+        if(spansX && spansY) {
+            return value(cx, cy, rzda);
+        }
+        if(spansX) {
+            return value(cx, cy < y ? y - 0.5 : y + 0.5, rzda);
+        }
+        if(spansY) {
+            return value(cx < x ? x - 0.5 : x + 0.5, cy, rzda);
+        }
+        return Double.MAX_VALUE;
+    }
+
+    private boolean holdsCenter(int x, int y) {
+        return Math.abs(geometry.getCenterX() - x) <= 0.5 && Math.abs(geometry.getCenterY() - y) <= 0.5;
+    }
+
+} // class BinMap
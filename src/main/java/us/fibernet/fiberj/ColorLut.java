@@ -0,0 +1,137 @@
+/*
+ * Copyright Wen Bian. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list
+ *   of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer listed in this license in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * - Neither the name of the copyright holders nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package us.fibernet.fiberj;
+
+/**
+ * A lookup table from intensity straight to a packed RGB (0xRRGGBB) color.
+ *
+ * It fuses the display thresholds, the user's transfer curve and the color table: entry i
+ * holds the color of intensity base + (i << shift). Intensities below base take the first
+ * entry and those past the table the last one. A value range of up to MAX_SIZE (e.g., all
+ * of 16-bit data) gets one entry per value; a wider range is binned by shift.
+ */
+public final class ColorLut {
+
+    public static final int MAX_SIZE = 65536;
+
+    /** maps an intensity between the thresholds to an index into the color table */
+    public interface Transfer {
+        int colorIndex(int value);
+    }
+
+    private final int[] table;
+    private final int base;
+    private final int shift;
+
+    public ColorLut(int[] table, int base, int shift) {
+        if(table.length < 1 || shift < 0 || shift > 31) {
+            throw new IllegalArgumentException("invalid color lookup table");
+        }
+        this.table = table;
+        this.base = base;
+        this.shift = shift;
+    }
+
+    /**
+     * Compile a table for thresholds min and max: intensities up to min get colors[0],
+     * intensities from max on get the last color, and those in between
+     * colors[transfer.colorIndex(value)].
+     *
+     * @param colors  color table as packed RGB
+     */
+    public static ColorLut compile(int min, int max, int[] colors, Transfer transfer) {
+
+        long range = Math.max(2, (long) max - min + 1);
+        int shift = 0;
+        while((range >> shift) > MAX_SIZE) {
+            shift++;
+        }
+        int n = (int) (((range - 1) >> shift) + 1);
+        int last = colors.length - 1;
+
+        int[] table = new int[n];
+        table[0] = colors[0];
+        table[n - 1] = colors[last];
+        long half = (1L << shift) / 2;
+        for(int i = 1; i < n - 1; i++) {
+            long value = (long) min + ((long) i << shift) + half;
+            if(value >= max) {
+                table[i] = colors[last];
+            }
+            else {
+                int c = transfer.colorIndex((int) value);
+                table[i] = colors[c < 0 ? 0 : c > last ? last : c];
+            }
+        }
+
+        return new ColorLut(table, min, shift);
+    }
+
+    public int getBase()     { return base;            }
+    public int getShift()    { return shift;           }
+    public int size()        { return table.length;    }
+
+    /**
+     * @return  the packed RGB color of an intensity
+     */
+    public int lookup(int value) {
+        long i = ((long) value - base) >> shift;
+        return table[i < 0 ? 0 : i >= table.length ? table.length - 1 : (int) i];
+    }
+
+    /**
+     * color rows [from, to) of src into the packed RGB pixels dst, which has width
+     * pixels per row
+     */
+    void apply(PixelBuffer src, int from, int to, int[] dst) {
+        int[] pixels = src.getArray();
+        int width = src.getWidth();
+        int last = table.length - 1;
+
+        if(shift == 0) {
+            // one entry per value, compare first so value - base can not overflow
+            int top = (int) Math.min(Integer.MAX_VALUE, (long) base + last);
+            int first = table[0], end = table[last];
+            for(int h = from; h < to; h++) {
+                for(int w = 0, k = src.index(0, h), p = h * width; w < width; w++) {
+                    int v = pixels[k++];
+                    dst[p++] = v <= base ? first : v >= top ? end : table[v - base];
+                }
+            }
+        }
+        else {
+            for(int h = from; h < to; h++) {
+                for(int w = 0, k = src.index(0, h), p = h * width; w < width; w++) {
+                    dst[p++] = lookup(pixels[k++]);
+                }
+            }
+        }
+    }
+
+} // class ColorLut
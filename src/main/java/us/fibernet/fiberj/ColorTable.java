@@ -78,6 +78,17 @@ public class ColorTable {
     public void setBlue(byte[] blue) {
         this.blue = blue;
     }
+
+    /**
+     * @return  the colors packed as 0xRRGGBB ints, the pixel layout of TYPE_INT_RGB images
+     */
+    public int[] getPackedRGB() {
+        int[] rgb = new int[nColors];
+        for(int i = 0; i < nColors; i++) {
+            rgb[i] = ((red[i] & 0xFF) << 16) | ((green[i] & 0xFF) << 8) | (blue[i] & 0xFF);
+        }
+        return rgb;
+    }
     
     public static ColorTable getColorTable(String name) {
 
@@ -46,9 +46,6 @@ import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
-import java.awt.image.WritableRaster;
-import java.util.Arrays;
-import java.util.TreeMap;
 import javax.swing.BorderFactory;
 import javax.swing.JMenuItem;
 import javax.swing.JPanel;
@@ -72,13 +69,14 @@ public class ColormapControl {
     };
     private static final int colorPaneWidth = 374;
     private static final int colorPaneHeight = 143;
+    private static final double AUTO_LOW = 0.5;    // percentiles the Auto thresholds are set to,
+    private static final double AUTO_HIGH = 99.5;  // so a few hot or dead pixels do not set the range
 
     private JFrame frame;
     private BufferedImage rainbow;
     private BufferedImage rainbowCache;
     private Pattern myPattern;
     private PatternDisplay patternDisplay;
-    private int[][] indexArray; // input converted to color indexes
     //private int[][] dataArray;
     private int minOriginalColor;
     private int maxOriginalColor;
@@ -106,7 +104,6 @@ public class ColormapControl {
     public boolean isOpen;
 
     /**
-     * @param indexArray array of color indexes
      * @param pd PatternDisplay on which image will be generated
      */
     public ColormapControl(PatternDisplay pd) {
@@ -190,6 +187,14 @@ public class ColormapControl {
             }
         });
 
+        JButton autoButton = new JButton("Auto");
+        panel_1.add(autoButton);
+        autoButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                autoContrast();
+            }
+        });
+
         JButton btnNewButton_2 = new JButton("Close");
         panel_1.add(btnNewButton_2);
         btnNewButton_2.addActionListener(new ActionListener() {
@@ -408,7 +413,7 @@ public class ColormapControl {
         rainbow = PatternUtil.fitImage(rainbowLabel, rainbow);
         generateRainbowCurve();
         generateBox();
-        calculateImageIndex();//
+        scheduleImageIndex();
     }
 
     // sort the order of boxes based on their x position
@@ -430,41 +435,29 @@ public class ColormapControl {
         calculateImageIndex();// redraw the original image.
     }
 
+    // set the thresholds to the AUTO_LOW and AUTO_HIGH percentiles of the intensities
+    private void autoContrast() {
+        Histogram hist = myPattern.getDisplayHistogram(256);
+        minThreshold = toThreshold(hist.percentile(AUTO_LOW));
+        maxThreshold = toThreshold(hist.percentile(AUTO_HIGH));
+        refreshHistogram();
+        calculateImageIndex();
+    }
+
+    // the position on the histogram of an intensity, see generateThresholdReadings()
+    private int toThreshold(double value) {
+        int x = histoFactor > 0 ? (int) Math.round((value - minOriginalColor) / histoFactor) : 0;
+        return Math.max(0, Math.min(histoLabel.getWidth(), x));
+    }
+
     // ===============================================================================================
     // Generate the histogram of color usage
     private BufferedImage generateHistogram() {
 
-        TreeMap<Integer, Integer> colors = new TreeMap<Integer, Integer>();
-        int[][] indexArray  = PatternUtil.computerColorIndex(myPattern.getDisplayData(), 256);
-        int[][] dataArray = myPattern.getDisplayData();
-        int max = -1; // height
-        int minThre = Integer.MAX_VALUE;
-        int maxThre = Integer.MIN_VALUE;
-        for(int i=0; i < indexArray.length; i++) {
-            for(int j=0; j < indexArray[0].length; j++) {
-
-                if(dataArray[i][j] < minThre && dataArray[i][j] > 0) {
-                    minThre = dataArray[i][j];
-                }
-
-                if(dataArray[i][j] > maxThre) {
-                    maxThre = dataArray[i][j];
-                }
-
-                if(colors.containsKey(indexArray[i][j])) {
-                    colors.put(indexArray[i][j], colors.get(indexArray[i][j]) + 1);
-
-                    if(colors.get(indexArray[i][j]) > max  && indexArray[i][j] != 0) {
-                        max = colors.get(indexArray[i][j]);
-                    }
-                }
-                else {
-                    colors.put(indexArray[i][j], 1);
-                }
-            }
-        }
-        minOriginalColor = minThre;
-        maxOriginalColor = maxThre;
+        // 256 bins, cached by the pattern until its data changes
+        Histogram hist = myPattern.getDisplayHistogram(256);
+        minOriginalColor = hist.getMinPositive();
+        maxOriginalColor = hist.getMaxValue();
         histoFactor = (double) (maxOriginalColor - minOriginalColor) / colorPaneWidth;
         /*
          * System.out.println("Histogram: minColor "+minOriginalColor
@@ -472,44 +465,24 @@ public class ColormapControl {
          */
         int w = 2560;
         int h = 1000;
-        // System.out.println("max height is "+max);
+        long max = hist.getMaxCount(0); // height, background bin 0 not counted
         double factor = max / 1000 + 1;
-        // System.out.println("factor is "+factor);
 
         histogram = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
-        WritableRaster raster = histogram.getRaster();
-
-        int[] r = null;
-        int[] g = null;
-        int[] b = null;
-        // paint background white
-        r = new int[w * h];
-        g = new int[w * h];
-        b = new int[w * h];
-        Arrays.fill(r, 211);
-        Arrays.fill(g, 211);
-        Arrays.fill(b, 211);
-        raster.setSamples(0, 0, w, h, 0, r);
-        raster.setSamples(0, 0, w, h, 1, g);
-        raster.setSamples(0, 0, w, h, 2, b);
+        Graphics2D g = histogram.createGraphics();
 
+        // paint background gray, a white bar for each bin
+        g.setColor(new Color(211, 211, 211));
+        g.fillRect(0, 0, w, h);
+        g.setColor(Color.WHITE);
         for(int i = 10; i < 2560; i += 10) {
-            if(colors.containsKey(i / 10)) {
-                int height = (int) (colors.get(i / 10) / factor);// ---------------------
-                // System.out.println(i/10+" height is "+height);
-                int gap = h - height;
-                // System.out.println(i+" height "+height);
-                r = new int[10 * height];
-                g = new int[10 * height];
-                b = new int[10 * height];
-                Arrays.fill(r, 255);
-                Arrays.fill(g, 255);
-                Arrays.fill(b, 255);
-                raster.setSamples(i, gap, 10, height, 0, r);
-                raster.setSamples(i, gap, 10, height, 1, g);
-                raster.setSamples(i, gap, 10, height, 2, b);
+            int height = (int) (hist.getCount(i / 10) / factor);
+            if(height > 0) {
+                g.fillRect(i, h - height, 10, height);
             }
         }
+        g.dispose();
+
         return histogram;
     }
 
@@ -697,42 +670,40 @@ public class ColormapControl {
         generateThreLines();
         generateThresholdReadings();
         histogram = PatternUtil.fitImage(histoLabel, histogram);
-        calculateImageIndex();
+        scheduleImageIndex();
     }
 
     private void changeColorTable(String colorTableName) {
         PatternUtil.useColorTable(colorTableName);
         generateNewRainbow();
-        calculateImageIndex();
     }
 
     // ==============================patterGUI interaction=======================
-    // based on the dataArray, consider the thresholds and curve function,
-    // generate new image array and make pattern GUI to update image based on this image.
+    // based on the dataArray, consider the thresholds and curve function, make pattern GUI
+    // to update image based on this image.
     void calculateImageIndex() {
+        patternDisplay.generateImage(compileColorLut());
+    }
 
-        int[][] dataArray = myPattern.getDisplayData();
-        int[][] output = new int[dataArray.length][dataArray[0].length];
-        int min = Integer.valueOf(minArea.getText());
-        int max = Integer.valueOf(maxArea.getText());
-        double scale = (double) (max - min) / colorPaneWidth;
+    // same as calculateImageIndex, but rendered in the background. Used while dragging
+    private void scheduleImageIndex() {
+        patternDisplay.requestImage(compileColorLut());
+    }
 
-        for(int h = 0; h < dataArray.length; h++) {
-            for(int w = 0; w < dataArray[0].length; w++) {
+    // compile the thresholds, curve function and color table into one lookup table from
+    // intensity to color
+    private ColorLut compileColorLut() {
 
-                if(dataArray[h][w] <= min) {
-                    output[h][w] = 0; // first color
-                }
-                else if(dataArray[h][w] >= max) {
-                    output[h][w] = 255; // last color
-                }
-                else {
-                    int cf = (int) curveFunction((dataArray[h][w] - min) / scale);
-                    output[h][w] = (int) ((rainbowLabel.getHeight() - cf) * rainbowHeightFactor);
-                }
-            }
-        }
+        final int min = Integer.valueOf(minArea.getText());
+        final int max = Integer.valueOf(maxArea.getText());
+        final double scale = (double) (max - min) / colorPaneWidth;
+        final int rainbowHeight = rainbowLabel.getHeight();
 
-        patternDisplay.generateIndexedImage(output); // generate new image based on the color control
+        return ColorLut.compile(min, max, PatternUtil.getPackedColors(), new ColorLut.Transfer() {
+            public int colorIndex(int value) {
+                int cf = (int) curveFunction((value - min) / scale);
+                return (int) ((rainbowHeight - cf) * rainbowHeightFactor);
+            }
+        });
     }
 }
@@ -28,20 +28,21 @@
 
 package us.fibernet.fiberj;
 
-import java.awt.AlphaComposite;
 import java.awt.Color;
-import java.awt.Graphics2D;
 import java.awt.Point;
-import java.awt.event.MouseEvent;
-import java.awt.geom.Line2D;
-import java.awt.image.BufferedImage;
+import java.awt.Shape;
+import java.awt.geom.Path2D;
 import java.util.ArrayList;
+import java.util.Collections;
 
-import javax.swing.ImageIcon;
 import javax.swing.JOptionPane;
 
 /**
  * CA utility class for drawing cursor and DrawDialog objects on a PatternDisplay
+ *
+ * DrawDialog objects are kept as a retained scene on the display's overlay: one SceneLayer
+ * each for circles, resolutions and layerlines, whose shapes are rebuilt only when their
+ * parameters or the display scale change.
  */
 public class DrawKit {
 
@@ -50,8 +51,10 @@ public class DrawKit {
     
     private PatternDisplay myDisplay;
     private Pattern myPattern;
-    private BufferedImage imageBuffer;
-    private Graphics2D g2d;
+    private SceneLayer<Circle> circleLayer;
+    private SceneLayer<Resolution> resolutionLayer;
+    private SceneLayer<Layerline> layerlineLayer;
+    private ReciprocalGeometry sceneGeometry;  // resolutions and layerlines were built for
 
     
     // no default constructor
@@ -63,6 +66,65 @@ public class DrawKit {
     public DrawKit(PatternDisplay p) {
         myDisplay = p;
         myPattern = p.getPattern();
+
+        circleLayer = new SceneLayer<Circle>(new SceneLayer.Geometry<Circle>() {
+            public double[] getKey(Circle c) {
+                return new double[] { c.getX(), c.getY(), c.getR(), c.getThetaStep(), myPattern.getShrinkScale() };
+            }
+            public Shape build(Circle c) {
+                return circlePath(c);
+            }
+            public Color getColor(Circle c) {
+                return c.getColor();
+            }
+        });
+        resolutionLayer = new SceneLayer<Resolution>(new SceneLayer.Geometry<Resolution>() {
+            public double[] getKey(Resolution r) {
+                return new double[] { r.getR(), myPattern.getShrinkScale() };
+            }
+            public Shape build(Resolution r) {
+                ArrayList<Point> points = myPattern.getResolutionPoints(r);
+                if(points == null || points.isEmpty()) {
+                    return null;
+                }
+                return pointPath(points);
+            }
+            public Color getColor(Resolution r) {
+                return r.getColor();
+            }
+        });
+        layerlineLayer = new SceneLayer<Layerline>(new SceneLayer.Geometry<Layerline>() {
+            public double[] getKey(Layerline ll) {
+                return new double[] { ll.getR(), myPattern.getShrinkScale() };
+            }
+            public Shape build(Layerline ll) {
+                ArrayList<ArrayList<Point>> llPoints = myPattern.getLayerLines(ll.getR());
+                if(llPoints == null) {
+                    return null;
+                }
+                Path2D.Double path = new Path2D.Double();
+                for(ArrayList<Point> points : llPoints) {  // each a polyline
+                    if(points == null || points.isEmpty()) {
+                        continue;
+                    }
+                    Point p = points.get(points.size() - 1);
+                    path.moveTo(p.x, p.y);
+                    for(int i = points.size() - 2; i >= 0; --i) {
+                        p = points.get(i);
+                        path.lineTo(p.x, p.y);
+                    }
+                }
+                return path;
+            }
+            public Color getColor(Layerline ll) {
+                return ll.getColor();
+            }
+        });
+
+        PatternOverlay overlay = p.getOverlay();
+        overlay.addLayer(circleLayer);
+        overlay.addLayer(resolutionLayer);
+        overlay.addLayer(layerlineLayer);
     }
     
     
@@ -74,19 +136,15 @@ public class DrawKit {
      *    |_|_|
      *      |
      */
-    // TODO: draw on glass pane? maybe faster.
+    // drawn on the display's overlay, which repaints only around the old and new cursor
     public void drawCursor(int x, int y) {
-        getGraphics();
-        
-        g2d.setColor(Color.WHITE);
-        g2d.draw(new Line2D.Double(x-CA, y,   x+CA, y  ));
-        g2d.draw(new Line2D.Double(x,   y-CA, x,   y+CA));
-        g2d.draw(new Line2D.Double(x-CB, y-CB, x+CB, y-CB));
-        g2d.draw(new Line2D.Double(x-CB, y-CB, x-CB, y+CB));
-        g2d.draw(new Line2D.Double(x+CB, y+CB, x+CB, y-CB));
-        g2d.draw(new Line2D.Double(x+CB, y+CB, x-CB, y+CB));
-        
-        updateDisplay();
+        Path2D.Double cursor = new Path2D.Double();
+        cursor.moveTo(x-CA, y);     cursor.lineTo(x+CA, y);
+        cursor.moveTo(x, y-CA);     cursor.lineTo(x, y+CA);
+        cursor.moveTo(x-CB, y-CB);  cursor.lineTo(x+CB, y-CB);
+        cursor.lineTo(x+CB, y+CB);  cursor.lineTo(x-CB, y+CB);
+        cursor.closePath();
+        myDisplay.getOverlay().setCursorShape(cursor);
 
         SystemSettings.setCursorX(x);
         SystemSettings.setCursorY(y);
@@ -94,53 +152,18 @@ public class DrawKit {
     }
     
     /**
-     *  draw a Circle using Graphics2D.drawOval
+     *  draw a single Circle, replacing the circles drawn
      */
-    // maybe draw it manually for more accuracy
     // this method is not used
     public void drawCircle(Circle c) {
-        getGraphics();
-        double shinkScale = myPattern.getShrinkScale();
-        
-        g2d.setColor(c.getColor());
-        int x = (int) ((c.getX() - c.getR()) / shinkScale + 0.5);
-        int y = (int) ((c.getY() - c.getR()) / shinkScale+ 0.5);
-        int w = (int) ((c.getR() * 2.0) / shinkScale+ 0.5);
-        g2d.drawOval(x, y, w, w);
-        //System.out.println("x,y,w: " + x + ", " + y + ", " + w);
-        updateDisplay();
+        drawCircles(new ArrayList<Circle>(Collections.singletonList(c)));
     }
 
     /**
      *  draw a list of Circles
      */
     public void drawCircles(ArrayList<Circle> cs) {
-        getGraphics();
-        double shinkScale = myPattern.getShrinkScale();
-        
-        for(Circle c : cs) {
-            g2d.setColor(c.getColor());
-            /*
-            int x = (int)(c.getX() - c.getR() + 0.5);
-            int y = (int)(c.getY() - c.getR() + 0.5);
-            int w = (int)(c.getR() * 2.0 + 0.5);
-            g2d.drawOval(x, y, w, w);
-            */
-            double x0 = c.getX();
-            double y0 = c.getY();
-            double r  = c.getR();
-            double thetaStep = c.getThetaStep();
-            double theta = 0;
-            int NP = (int)(Math.PI * 2 / thetaStep + 1.5);
-            for(int i=0; i<NP; i++) {
-                theta += thetaStep;
-                double x = (x0 + r * Math.cos(theta)) / shinkScale;
-                double y = (y0 + r * Math.sin(theta)) / shinkScale;
-                g2d.draw(new Line2D.Double(x, y, x, y));
-            }
-        }
-        
-        updateDisplay();
+        myDisplay.getOverlay().repaint(circleLayer.update(cs));
     }
 
     // draw a Resolution
@@ -153,23 +176,11 @@ public class DrawKit {
             return;
         }
 
-        getGraphics();
-
-        for(Resolution r : rs) {
-            g2d.setColor(r.getColor());
-
-            ArrayList<Point> points = myPattern.getResolutionPoints(r);
-            if(points == null || points.isEmpty()) {
-                JOptionPane.showMessageDialog(null, "Resolution not defined.", "Error", JOptionPane.ERROR_MESSAGE);
-                return;
-            }
-
-            for(Point p : points) {
-                g2d.draw(new Line2D.Double(p, p));
-            }
+        checkGeometry();
+        myDisplay.getOverlay().repaint(resolutionLayer.update(rs));
+        if(!resolutionLayer.isComplete()) {
+            JOptionPane.showMessageDialog(null, "Resolution not defined.", "Error", JOptionPane.ERROR_MESSAGE);
         }
-        
-        updateDisplay();
     }
 
     // draw a Layerline
@@ -182,44 +193,70 @@ public class DrawKit {
             return;
         }
 
-        getGraphics();
-
-        for(Layerline ll : lls) {
+        checkGeometry();
+        myDisplay.getOverlay().repaint(layerlineLayer.update(lls));
+        if(!layerlineLayer.isComplete()) {
+            JOptionPane.showMessageDialog(null, "Layerlines not defined.", "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
 
-            g2d.setColor(ll.getColor());
-            ArrayList<ArrayList<Point>> llPoints = myPattern.getLayerLines(ll.getR());
-            if(llPoints == null) {
-                JOptionPane.showMessageDialog(null, "Layerlines not defined.", "Error", JOptionPane.ERROR_MESSAGE);
-                return;
-            }
+    /**
+     * rebuild the scene for a new display scale or pattern center
+     */
+    public void redraw() {
+        PatternOverlay overlay = myDisplay.getOverlay();
+        overlay.repaint(circleLayer.refresh());
+        if(!checkGeometry()) {
+            overlay.repaint(resolutionLayer.refresh());
+            overlay.repaint(layerlineLayer.refresh());
+        }
+    }
 
-            for(ArrayList<Point> points : llPoints) {
-                if(points == null || points.isEmpty()) {
-                    continue;
-                }
 
-                Point pLast = points.get(points.size() - 1);
-                for(int i = points.size() - 2; i >= 0; --i) { // process all points on this layerline
-                    Point p = points.get(i);
-                    g2d.draw(new Line2D.Double(pLast, p));
-                    pLast = p;
-                }
-            }
+    // resolutions and layerlines move with any of the parameters in the pattern's geometry:
+    // rebuild them if it is not the one they were built for. Return true if rebuilt
+    private boolean checkGeometry() {
+        ReciprocalGeometry geometry = new ReciprocalGeometry(myPattern);
+        if(geometry.equals(sceneGeometry)) {
+            return false;
         }
-        
-        updateDisplay();
+
+        sceneGeometry = geometry;
+        resolutionLayer.invalidate();
+        layerlineLayer.invalidate();
+        PatternOverlay overlay = myDisplay.getOverlay();
+        overlay.repaint(resolutionLayer.refresh());
+        overlay.repaint(layerlineLayer.refresh());
+        return true;
     }
-    
-    
-    private void getGraphics() {
-        imageBuffer = myDisplay.getDisplayImageCopy();
-        g2d = imageBuffer.createGraphics();
-        g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 1.0f));
+
+    // a circle as a closed polyline through points thetaStep apart, in display coordinates
+    private Shape circlePath(Circle c) {
+        double shinkScale = myPattern.getShrinkScale();
+        double x0 = c.getX();
+        double y0 = c.getY();
+        double r  = c.getR();
+        double thetaStep = c.getThetaStep();
+        int NP = (int)(Math.PI * 2 / thetaStep + 1.5);
+
+        Path2D.Double path = new Path2D.Double(Path2D.WIND_NON_ZERO, NP + 1);
+        path.moveTo((x0 + r) / shinkScale, y0 / shinkScale);
+        for(int i = 1; i < NP; i++) {
+            double theta = i * thetaStep;
+            path.lineTo((x0 + r * Math.cos(theta)) / shinkScale, (y0 + r * Math.sin(theta)) / shinkScale);
+        }
+        path.closePath();
+        return path;
     }
-    
-    private void updateDisplay() {
-        g2d.dispose();
-        myDisplay.setDisplayImage(imageBuffer);       
+
+    // single pixels at points, each as a zero length segment
+    private static Shape pointPath(ArrayList<Point> points) {
+        Path2D.Double path = new Path2D.Double(Path2D.WIND_NON_ZERO, 2 * points.size());
+        for(Point p : points) {
+            path.moveTo(p.x, p.y);
+            path.lineTo(p.x, p.y);
+        }
+        return path;
     }
     
 }
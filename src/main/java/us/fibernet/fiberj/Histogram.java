@@ -0,0 +1,223 @@
+/*
+ * Copyright Wen Bian. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list
+ *   of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer listed in this license in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * - Neither the name of the copyright holders nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package us.fibernet.fiberj;
+
+/**
+ * An intensity histogram with primitive bins over a value range.
+ *
+ * Bins split the range [lo, hi] evenly; values outside it are counted as underflow or
+ * overflow. Counting runs in parallel bands of rows, each with its own partial bins,
+ * which are merged at the end. Percentile queries interpolate within a bin, e.g., to pick
+ * display thresholds for auto-contrast.
+ */
+public final class Histogram {
+
+    private static final int MIN_BAND_ROWS = 64;  // fewest rows worth a thread
+
+    private final long[] bins;
+    private final int lo;
+    private final int hi;
+    private final double binWidth;
+    private long underflow;
+    private long overflow;
+    private int minValue = Integer.MAX_VALUE;     // over all pixels
+    private int maxValue = Integer.MIN_VALUE;
+    private int minPositive = Integer.MAX_VALUE;  // smallest value above 0, e.g., to skip detector gaps
+
+    private Histogram(int binCount, int lo, int hi) {
+        if(binCount < 1 || hi < lo) {
+            throw new IllegalArgumentException("invalid histogram: " + binCount + " bins over [" + lo + ", " + hi + "]");
+        }
+        this.bins = new long[binCount];
+        this.lo = lo;
+        this.hi = hi;
+        this.binWidth = ((double) hi - lo + 1) / binCount;
+    }
+
+    /**
+     * histogram of data with binCount bins over the range of its values
+     */
+    public static Histogram compute(PixelBuffer data, int binCount) {
+        int[] range = getRange(data);
+        return compute(data, binCount, range[0], Math.max(range[0], range[1]));
+    }
+
+    /**
+     * histogram of data with binCount bins over [lo, hi]
+     */
+    public static Histogram compute(final PixelBuffer data, int binCount, final int lo, final int hi) {
+
+        final Histogram result = new Histogram(binCount, lo, hi);
+        final int n = binCount;
+        final double scale = 1 / result.binWidth;
+        final int[] src = data.getArray();
+        final int width = data.getWidth();
+
+        ParallelUtil.forEachBand(data.getHeight(), MIN_BAND_ROWS, new ParallelUtil.BandTask() {
+            public void run(int from, int to) {
+                int[] partial = new int[n];
+                long under = 0, over = 0;
+                int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE, minPos = Integer.MAX_VALUE;
+
+                for(int h = from; h < to; h++) {
+                    for(int k = data.index(0, h), end = k + width; k < end; k++) {
+                        int v = src[k];
+                        if(v < min) { min = v; }
+                        if(v > max) { max = v; }
+                        if(v > 0 && v < minPos) { minPos = v; }
+
+                        if(v < lo) {
+                            under++;
+                        }
+                        else if(v > hi) {
+                            over++;
+                        }
+                        else {
+                            int i = (int) (((long) v - lo) * scale);
+                            partial[i < n ? i : n - 1]++;
+                        }
+                    }
+                }
+
+                result.merge(partial, under, over, min, max, minPos);
+            }
+        });
+
+        return result;
+    }
+
+    private synchronized void merge(int[] partial, long under, long over, int min, int max, int minPos) {
+        for(int i = 0; i < partial.length; i++) {
+            bins[i] += partial[i];
+        }
+        underflow += under;
+        overflow += over;
+        minValue = Math.min(minValue, min);
+        maxValue = Math.max(maxValue, max);
+        minPositive = Math.min(minPositive, minPos);
+    }
+
+    /**
+     * @return  {min, max} of data, found in parallel
+     */
+    public static int[] getRange(final PixelBuffer data) {
+        final int[] range = { Integer.MAX_VALUE, Integer.MIN_VALUE };
+        final int[] src = data.getArray();
+        final int width = data.getWidth();
+
+        ParallelUtil.forEachBand(data.getHeight(), MIN_BAND_ROWS, new ParallelUtil.BandTask() {
+            public void run(int from, int to) {
+                int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+                for(int h = from; h < to; h++) {
+                    for(int k = data.index(0, h), end = k + width; k < end; k++) {
+                        int v = src[k];
+                        if(v < min) { min = v; }
+                        if(v > max) { max = v; }
+                    }
+                }
+                synchronized(range) {
+                    range[0] = Math.min(range[0], min);
+                    range[1] = Math.max(range[1], max);
+                }
+            }
+        });
+
+        return range;
+    }
+
+    public int getBinCount()          { return bins.length;  }
+    public long getCount(int bin)     { return bins[bin];    }
+    public long getUnderflow()        { return underflow;    }
+    public long getOverflow()         { return overflow;     }
+    public int getLo()                { return lo;           }
+    public int getHi()                { return hi;           }
+    public double getBinWidth()       { return binWidth;     }
+    public int getMinValue()          { return minValue;     }
+    public int getMaxValue()          { return maxValue;     }
+
+    /** @return  smallest value above 0, or 0 if there is none */
+    public int getMinPositive() {
+        return minPositive == Integer.MAX_VALUE ? 0 : minPositive;
+    }
+
+    /** @return  lowest value of a bin */
+    public double getBinStart(int bin) {
+        return lo + bin * binWidth;
+    }
+
+    /** @return  number of values in the range */
+    public long getTotal() {
+        long total = 0;
+        for(long b : bins) {
+            total += b;
+        }
+        return total;
+    }
+
+    /**
+     * @return  the highest bin count, skipping bin skip (e.g., 0 for the background) if
+     *          it is not negative
+     */
+    public long getMaxCount(int skip) {
+        long max = 0;
+        for(int i = 0; i < bins.length; i++) {
+            if(i != skip && bins[i] > max) {
+                max = bins[i];
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @param p  percentile in [0, 100], of all values including underflow and overflow
+     * @return   the value below which p percent of the values fall, interpolated within a bin
+     */
+    public double percentile(double p) {
+        long all = underflow + getTotal() + overflow;
+        if(all == 0) {
+            return lo;
+        }
+
+        double target = Math.max(0, Math.min(100, p)) / 100 * all;
+        if(target <= underflow) {
+            return underflow > 0 ? minValue : lo;
+        }
+
+        double seen = underflow;
+        for(int i = 0; i < bins.length; i++) {
+            if(seen + bins[i] >= target && bins[i] > 0) {
+                return getBinStart(i) + (target - seen) / bins[i] * binWidth;
+            }
+            seen += bins[i];
+        }
+
+        return overflow > 0 ? maxValue : hi + 1;
+    }
+
+} // class Histogram
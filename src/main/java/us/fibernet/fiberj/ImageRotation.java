@@ -33,6 +33,7 @@ import java.awt.image.WritableRaster;
 import javax.imageio.ImageIO;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 
 /**
  *
@@ -88,33 +89,132 @@ public final class ImageRotation {
      */
     public static int[][] rotate(int[][] array2d, double degree, double x0, double y0,
                                                   int bgPixel, int interpolation) {
+        return rotate(PixelBuffer.fromArray(array2d), degree, x0, y0, bgPixel, interpolation).toArray();
+    }
 
-        // copy int[][] elements to a double[][]
-        int H = array2d.length;
-        int W = array2d[0].length;
-        double[][] matrix = new double[H][W];
+    /**
+     * rotate a PixelBuffer with given center (x, y), default background pixel value and
+     * default interpolation method
+     */
+    public static PixelBuffer rotate(PixelBuffer buf, double degree, double x0, double y0) {
+        return rotate(buf, degree, x0, y0, BG_PIXEL, NEAREST_INTERPOLATION);
+    }
 
-        for(int h = 0; h < H; h++) {
-            for(int w = 0; w < W; w++) {
-                matrix[h][w] = array2d[h][w];
-            }
-        }
+    /**
+     * rotate a PixelBuffer with given center (x, y), background pixel value and interpolation
+     * method. Same as rotate(double[][], ...) but works on the flat array, without an
+     * intermediate double[][] copy of the data.
+     */
+    public static PixelBuffer rotate(PixelBuffer buf, double degree, double x0, double y0,
+                                                      int bgPixel, int interpolation) {
+
+        double angle = degree * Math.PI / 180;
+        double sina = Math.sin(angle);
+        double cosa = Math.cos(angle);
 
-        // call rotate on double[][]
-        double[][] rotArray2d = rotate(matrix, degree, x0, y0, bgPixel, interpolation);
+        int H = buf.getHeight();
+        int W = buf.getWidth();
 
-        // copy double[][] back to an int[][]
-        H = rotArray2d.length;
-        W = rotArray2d[0].length;
-        int[][] newArray2d = new int[H][W];
+        if(x0 == HALF_W)  {  x0 = (W - 1) / 2;  }   // not W/2!
+        if(y0 == HALF_H)  {  y0 = (H - 1) / 2;  }
 
-        for(int h = 0; h < H; h++) {
-            for(int w = 0; w < W; w++) {
-                newArray2d[h][w] = (int) Math.round(rotArray2d[h][w]);
+        double[] bounds = getRotatedBounds(W, H, x0, y0, sina, cosa);
+        double xMin = bounds[0];
+        double yMin = bounds[1];
+        int newW = (int) bounds[2];
+        int newH = (int) bounds[3];
+
+        int[] src = buf.getArray();
+        PixelBuffer newBuf = new PixelBuffer(newW, newH);
+        int[] dst = newBuf.getArray();
+        Arrays.fill(dst, bgPixel);
+
+        // rotate pixel by pixel, and do interpolation
+        for(int y = 0, p = 0; y < newH; y++) {
+            double yt = y - y0 + yMin;
+
+            for(int x = 0; x < newW; x++, p++) {
+
+                double xt = x - x0 + xMin;
+
+                double xs =  cosa * xt + sina * yt + x0;
+                double ys = -sina * xt + cosa * yt + y0;
+
+                int xx = (int) Math.round(xs);
+                int yy = (int) Math.round(ys);
+
+                if(interpolation == NEAREST_INTERPOLATION) {
+                    if(xx >= 0 && yy >= 0 && xx < W && yy < H) {
+                        dst[p] = src[buf.index(xx, yy)];
+                    }
+                }
+                else if(interpolation == BILINEAR_INTERPOLATION) {
+                    int xx1 = xs > xx ? xx : xx - 1;
+                    int yy1 = ys > yy ? yy : yy - 1;
+                    int xx2 = xx1 + 1;
+                    int yy2 = yy1 + 1;
+
+                    if(xx1 >= 0 && yy1 >= 0 && xx2 < W && yy2 < H) {
+                        double Q11 = src[buf.index(xx1, yy1)];
+                        double Q12 = src[buf.index(xx2, yy1)];
+                        double Q21 = src[buf.index(xx1, yy2)];
+                        double Q22 = src[buf.index(xx2, yy2)];
+                        dst[p] = (int) Math.round(
+                                bilinearinterpolation(xx1, xx2, xs, yy1, yy2, ys, Q11, Q12, Q21, Q22));
+                    }
+                    else if(xx >= 0 && yy >= 0 && xx < W && yy < H) {
+                        dst[p] = src[buf.index(xx, yy)];
+                    }
+                }
             }
         }
 
-        return newArray2d;
+        return newBuf;
+    }
+
+    /*
+     * calculate the new image's dimension from its four corner points.
+     * return {xMin, yMin, newW, newH}
+     */
+    private static double[] getRotatedBounds(int W, int H, double x0, double y0,
+                                             double sina, double cosa) {
+        double dx, dy, x1, y1, x2, y2, x3, y3, x4, y4;
+
+        // (0, 0)
+        dx = 0 - x0;
+        dy = 0 - y0;
+        x1 = cosa * dx - sina * dy + x0;
+        y1 = sina * dx + cosa * dy + y0;
+
+        // (W-1, 0)
+        dx = W - 1 - x0;
+        dy = 0 - y0;
+        x2 = cosa * dx - sina * dy + x0;
+        y2 = sina * dx + cosa * dy + y0;
+
+        // (0, H-1)
+        dx = 0 - x0;
+        dy = H - 1 - y0;
+        x3 = cosa * dx - sina * dy + x0;
+        y3 = sina * dx + cosa * dy + y0;
+
+        // (W-1, H-1)
+        dx = W - 1 - x0;
+        dy = H - 1 - y0;
+        x4 = cosa * dx - sina * dy + x0;
+        y4 = sina * dx + cosa * dy + y0;
+
+        double xMax = Math.max(Math.max(x1, x2), Math.max(x3, x4));
+        double xMin = Math.min(Math.min(x1, x2), Math.min(x3, x4));
+
+        double yMax = Math.max(Math.max(y1, y2), Math.max(y3, y4));
+        double yMin = Math.min(Math.min(y1, y2), Math.min(y3, y4));
+
+        // see rotate(double[][], ...) for how new width, height are rounded
+        int newW = (int) Math.round(xMax - xMin + 1);
+        int newH = (int) Math.round(yMax - yMin + 1);
+
+        return new double[] { xMin, yMin, newW, newH };
     }
 
 
@@ -0,0 +1,144 @@
+/*
+ * Copyright Wen Bian. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list
+ *   of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer listed in this license in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * - Neither the name of the copyright holders nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package us.fibernet.fiberj;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Scales the rendered pattern image to the display size.
+ *
+ * FAST uses nearest neighbour, cheap enough for every event of a live resize. SMOOTH
+ * averages all source pixels under a display pixel when shrinking (bilinear when
+ * enlarging) and is meant for when the size has settled. The last result of each quality
+ * is cached, so asking again for the same image and size costs nothing, and its buffer is
+ * reused when only the image changes. A result stays valid until the next call with the
+ * same quality.
+ */
+public final class ImageScaler {
+
+    public enum Quality { FAST, SMOOTH }
+
+    private static final int MIN_BAND_ROWS = 32;   // fewest display rows worth a thread
+
+    private final BufferedImage[] buffers = new BufferedImage[Quality.values().length];
+    private final BufferedImage[] sources = new BufferedImage[Quality.values().length];
+
+    /**
+     * @return  src scaled to width x height, src itself if it already has that size
+     */
+    public BufferedImage scale(BufferedImage src, int width, int height, Quality quality) {
+
+        if(src == null || width < 1 || height < 1) {
+            return null;
+        }
+        if(src.getWidth() == width && src.getHeight() == height) {
+            return src;
+        }
+
+        int q = quality.ordinal();
+        BufferedImage dst = buffers[q];
+        if(dst != null && src == sources[q] && dst.getWidth() == width && dst.getHeight() == height) {
+            return dst;
+        }
+        if(dst == null || dst.getWidth() != width || dst.getHeight() != height) {
+            dst = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+
+        boolean isShrink = width <= src.getWidth() && height <= src.getHeight();
+        if(quality == Quality.SMOOTH && isShrink && src.getType() == BufferedImage.TYPE_INT_RGB) {
+            areaAverage(src, dst);
+        }
+        else {
+            Graphics2D g = dst.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, quality == Quality.FAST
+                    ? RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR
+                    : RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(src, 0, 0, width, height, null);
+            g.dispose();
+        }
+
+        buffers[q] = dst;
+        sources[q] = src;
+        return dst;
+    }
+
+    /** drop the cached images */
+    public void flush() {
+        for(int i = 0; i < buffers.length; i++) {
+            buffers[i] = null;
+            sources[i] = null;
+        }
+    }
+
+    // each dst pixel gets the mean color of the src pixels it covers, in parallel bands of rows
+    private static void areaAverage(BufferedImage src, BufferedImage dst) {
+        final int sw = src.getWidth();
+        final int sh = src.getHeight();
+        final int dw = dst.getWidth();
+        final int dh = dst.getHeight();
+        final int[] in = ((DataBufferInt) src.getRaster().getDataBuffer()).getData();
+        final int[] out = ((DataBufferInt) dst.getRaster().getDataBuffer()).getData();
+        final int[] x0 = spans(sw, dw);
+        final int[] y0 = spans(sh, dh);
+
+        ParallelUtil.forEachBand(dh, MIN_BAND_ROWS, new ParallelUtil.BandTask() {
+            public void run(int from, int to) {
+                for(int y = from; y < to; y++) {
+                    for(int x = 0, p = y * dw; x < dw; x++) {
+                        long r = 0, g = 0, b = 0;
+                        for(int sy = y0[y]; sy < y0[y + 1]; sy++) {
+                            for(int sx = x0[x], k = sy * sw + sx; sx < x0[x + 1]; sx++) {
+                                int c = in[k++];
+                                r += (c >> 16) & 0xff;
+                                g += (c >> 8) & 0xff;
+                                b += c & 0xff;
+                            }
+                        }
+                        long n = (long) (y0[y + 1] - y0[y]) * (x0[x + 1] - x0[x]);
+                        long half = n >> 1;
+                        out[p++] = (int) ((r + half) / n) << 16 | (int) ((g + half) / n) << 8 | (int) ((b + half) / n);
+                    }
+                }
+            }
+        });
+    }
+
+    // start of the source span of each of n display pixels, plus the end of the last one;
+    // every span has at least one pixel as n <= size
+    private static int[] spans(int size, int n) {
+        int[] start = new int[n + 1];
+        for(int i = 0; i <= n; i++) {
+            start[i] = (int) ((long) i * size / n);
+        }
+        return start;
+    }
+
+} // class ImageScaler
@@ -51,7 +51,17 @@ public class MenuHandlerMainProcess extends MenuHandlerMainDefault {
     }
     
 
-    public void mainProcessTransform()      { super.mainProcessTransform();    }
+    /*
+     * Menu Main -> Process -> Transform
+     */
+    @Override
+    public void mainProcessTransform() {
+        Pattern pattern = PatternProcessor.getCurrentPattern();
+        if(pattern != null) {
+            pattern.getTransform().toReciprocal();
+        }
+    }
+
     public void mainProcessCorrection()     { super.mainProcessCorrection();   }
     public void mainProcessFilter()         { super.mainProcessFilter();       }
 
@@ -0,0 +1,183 @@
+/*
+ * Copyright Wen Bian. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list
+ *   of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer listed in this license in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * - Neither the name of the copyright holders nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package us.fibernet.fiberj;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A utility class for running data parallel loops on a shared pool of worker threads.
+ *
+ * Work is split into contiguous bands (e.g., rows of an image). The calling thread runs
+ * one band itself and waits for the rest. A loop started from inside a worker runs
+ * sequentially, so nested loops can not starve the pool.
+ */
+public final class ParallelUtil {
+
+    /** a piece of work on the index range [from, to) */
+    public interface BandTask {
+        void run(int from, int to);
+    }
+
+    private static final int NTHREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(NTHREADS,
+            new ThreadFactory() {
+                private int count = 0;
+                public synchronized Thread newThread(Runnable r) {
+                    Thread t = new WorkerThread(r, "fiberj-worker-" + (++count));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    // marks pool threads, see isWorker()
+    private static final class WorkerThread extends Thread {
+        WorkerThread(Runnable r, String name) {
+            super(r, name);
+        }
+    }
+
+    private ParallelUtil() {}
+
+    public static int getThreadCount() {
+        return NTHREADS;
+    }
+
+    private static boolean isWorker() {
+        return Thread.currentThread() instanceof WorkerThread;
+    }
+
+    /**
+     * run task on [0, size) split into at most one band per thread, each band at least
+     * minBand long. Exceptions thrown by a band are rethrown to the caller.
+     */
+    public static void forEachBand(int size, int minBand, final BandTask task) {
+
+        int nbands = Math.min(NTHREADS, size / Math.max(1, minBand));
+
+        if(nbands <= 1 || isWorker()) {
+            if(size > 0) {
+                task.run(0, size);
+            }
+            return;
+        }
+
+        int band = (size + nbands - 1) / nbands;
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+
+        for(int from = band; from < size; from += band) {
+            final int f = from;
+            final int t = Math.min(size, from + band);
+            futures.add(POOL.submit(new Runnable() {
+                public void run() {
+                    task.run(f, t);
+                }
+            }));
+        }
+
+        task.run(0, Math.min(size, band));
+        waitFor(futures);
+    }
+
+    /**
+     * run task once for each index in [0, size), indexes handed out to threads one by
+     * one. Suits a few large, uneven pieces of work such as compressed image strips.
+     */
+    public static void forEach(final int size, final BandTask task) {
+
+        if(size <= 1 || NTHREADS == 1 || isWorker()) {
+            for(int i = 0; i < size; i++) {
+                task.run(i, i + 1);
+            }
+            return;
+        }
+
+        final int[] next = { 0 };
+        Runnable worker = new Runnable() {
+            public void run() {
+                while(true) {
+                    int i;
+                    synchronized(next) {
+                        i = next[0]++;
+                    }
+                    if(i >= size) {
+                        return;
+                    }
+                    task.run(i, i + 1);
+                }
+            }
+        };
+
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for(int i = 1; i < Math.min(NTHREADS, size); i++) {
+            futures.add(POOL.submit(worker));
+        }
+
+        worker.run();
+        waitFor(futures);
+    }
+
+    // wait for all futures, rethrowing the first failure
+    private static void waitFor(List<Future<?>> futures) {
+        RuntimeException failure = null;
+
+        for(Future<?> f : futures) {
+            try {
+                f.get();
+            }
+            catch(ExecutionException e) {
+                if(failure == null) {
+                    Throwable cause = e.getCause();
+                    if(cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    failure = cause instanceof RuntimeException ?
+                              (RuntimeException) cause : new RuntimeException(cause);
+                }
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if(failure == null) {
+                    failure = new RuntimeException(e);
+                }
+            }
+        }
+
+        if(failure != null) {
+            throw failure;
+        }
+    }
+
+} // class ParallelUtil
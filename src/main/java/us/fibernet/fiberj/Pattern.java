@@ -48,8 +48,8 @@ public class Pattern {
     private static final double EPS = 0.000001;  // threshold for floating number comparisons
 
     private String name;        // name or file name for this pattern
-    private int[][] data;       // diffracton intensity
-    private int[][] data0;      // original data read from file
+    private PixelBuffer data;   // diffracton intensity
+    private PixelBuffer data0;  // original data read from file
     private byte[][] mask;      // for pixels who are masked
     private int dataMin;        // min value of intensity data
     private int dataMax;        // max value of intensity data
@@ -60,7 +60,7 @@ public class Pattern {
     private double wavelen;     // radiation wave length (angstrom)
     private double sdd;         // specimen to detector distance in (millimeter)
     //private double sddP;      // normalized sdd (in pixel) // always compute on fly
-    private double pixelSize;   // pixel size of pattern image (micrometer)
+    private double pixelSize;   // pixel size of pattern image (mm)
     // or step size in reciprocal space (1/angstrom)
     private double twist;       // fiber missetting angle: rotations about x axis (degree)
     private double tilt;        // fiber missetting angle: rotations about y axis (degree)
@@ -77,6 +77,16 @@ public class Pattern {
 
     private PatternDisplay myDisplay;
 
+    private int dataVersion;            // incremented whenever data changes
+    private PixelPyramid pyramid;       // shrunk levels of data for display
+    private int pyramidVersion = -1;    // dataVersion of pyramid
+    private Histogram displayHistogram; // cached histogram of display data
+    private int histogramVersion = -1;  // dataVersion and pyramid level of displayHistogram
+    private int histogramLevel;
+    private ReciprocalTables reciprocalTables;  // per pixel R, Z, D, azimuth, see getReciprocalTables()
+    private Transform transform;                // keeps resampling plans between frames
+    private AzimuthalIntegrator integrator;     // keeps bin maps and lookup tables between frames
+
 
     /**
      * @param data     2D array of intensity data 
@@ -84,11 +94,20 @@ public class Pattern {
      * @param isRecip  whether this is a reciprocal space pattern
      */
     public Pattern(int[][] data, String name, boolean isRecip) {
+        this(PixelBuffer.fromArray(data), name, isRecip);
+    }
+
+    /**
+     * @param data     intensity data
+     * @param name     pattern name
+     * @param isRecip  whether this is a reciprocal space pattern
+     */
+    public Pattern(PixelBuffer data, String name, boolean isRecip) {
         this.data = data;
         this.data0 = data;
         this.name = name;
         this.isRecip = isRecip;
-        setAspectRatio((data[0].length + 0.0) / data.length);
+        setAspectRatio((data.getWidth() + 0.0) / data.getHeight());
         setPatternData(data);
     }
 
@@ -118,8 +137,8 @@ public class Pattern {
     /*------------------------------- getters -------------------------------*/
 
     public String  getName()         { return name;           }
-    public int     getWidth()        { return data[0].length; }
-    public int     getHeight()       { return data.length;    }
+    public int     getWidth()        { return data.getWidth();  }
+    public int     getHeight()       { return data.getHeight(); }
     public int     getDataMin()      { return dataMin;        }
     public int     getDataMax()      { return dataMax;        }
     public byte[][] getMask()        { return mask;           }
@@ -139,22 +158,92 @@ public class Pattern {
     public boolean isRecip()         { return isRecip;        }
     public double  getAspectRatio()  { return aspectRatio;    }
     public double  getShrinkScale()  { return displayScale;   }
-    public int[][] getData()         { return data;           }
+    public PixelBuffer getPixels()   { return data;           }
+    public int     getDataVersion()  { return dataVersion;    }
+
+    /** a copy of the intensity data as int[][], for code not yet using PixelBuffer */
+    public int[][] getData()         { return data.toArray(); }
 
 
     /*---------------------- getters for derivative info --------------------*/
 
-    public int[][] getDisplayData() { 
-        if(isScaleDisplayData()) {
-            return PatternUtil.shrinkArray(data);  
+    /**
+     * data at the resolution it is shown at: the pyramid level at least as large as the
+     * display, built once and kept until the data changes
+     */
+    public PixelBuffer getDisplayData() { 
+        return getPyramid().getLevel(getDisplayLevel());
+    }
+
+    /**
+     * multi-resolution pyramid of the current data
+     */
+    public synchronized PixelPyramid getPyramid() {
+        if(pyramid == null || pyramidVersion != dataVersion) {
+            pyramid = new PixelPyramid(data);
+            pyramidVersion = dataVersion;
         }
-        else {
-            return data;
+        return pyramid;
+    }
+
+    /**
+     * histogram of the display data with binCount bins over [max(0, min), max], computed
+     * once per data version and pyramid level
+     */
+    public synchronized Histogram getDisplayHistogram(int binCount) {
+        int level = getDisplayLevel();
+        if(displayHistogram == null || histogramVersion != dataVersion || histogramLevel != level ||
+           displayHistogram.getBinCount() != binCount) {
+            PixelBuffer displayData = getDisplayData();
+            int[] range = Histogram.getRange(displayData);
+            int lo = Math.max(0, range[0]);
+            displayHistogram = Histogram.compute(displayData, binCount, lo, Math.max(lo, range[1]));
+            histogramVersion = dataVersion;
+            histogramLevel = level;
         }
+        return displayHistogram;
     }
+
+    /**
+     * per pixel reciprocal coordinates for the current parameters, rebuilt only when one
+     * of them has changed since the last call
+     *
+     * @return  null if the parameters needed are not defined
+     */
+    public synchronized ReciprocalTables getReciprocalTables() {
+        if(!isParameterDefined(false)) {
+            return null;
+        }
+        ReciprocalGeometry geometry = new ReciprocalGeometry(this);
+        if(reciprocalTables == null || !reciprocalTables.getGeometry().equals(geometry)) {
+            reciprocalTables = ReciprocalTables.build(geometry);
+        }
+        return reciprocalTables;
+    }
+
+    /**
+     * the Transform of this pattern, created on first use
+     */
+    public synchronized Transform getTransform() {
+        if(transform == null) {
+            transform = new Transform(this);
+        }
+        return transform;
+    }
+
+    /**
+     * the AzimuthalIntegrator of this pattern, created on first use
+     */
+    public synchronized AzimuthalIntegrator getIntegrator() {
+        if(integrator == null) {
+            integrator = new AzimuthalIntegrator(this);
+        }
+        return integrator;
+    }
+
     ///////
-    private boolean isScaleDisplayData() {
-        return Math.abs(displayScale - 1.0) > 0.01;
+    private int getDisplayLevel() {
+        return PixelPyramid.levelForScale(displayScale);
     }
 
     
@@ -172,7 +261,7 @@ public class Pattern {
      *  Do not change parameters, only update coordinates (so x,y no longer integers)
      */
     public void recalcDisplayScale(double newHeight) {
-        displayScale = data.length / newHeight;
+        displayScale = data.getHeight() / newHeight;
     }
 
     
@@ -199,7 +288,7 @@ public class Pattern {
         if(x0 < 0 || x0 >= getWidth() || y0 < 0 || y0 >= getHeight()) {
             return 0.0;
         }
-        return data[y0][x0];
+        return data.get(x0, y0);
     }
 
     
@@ -217,7 +306,7 @@ public class Pattern {
                 if(x0 < 0 || x0 >= getWidth() || y0 < 0 || y0 >= getHeight()) {
                     continue;
                 }
-                sum += data[y0][x0];
+                sum += data.get(x0, y0);
             }
         }
         else {
@@ -226,7 +315,7 @@ public class Pattern {
                 if(x0 < 0 || x0 >= getWidth() || y0 < 0 || y0 >= getHeight()) {
                     continue;
                 }
-                sum += data[y0][x0];
+                sum += data.get(x0, y0);
             }                 
         }
 
@@ -240,13 +329,14 @@ public class Pattern {
     public byte[] getDataBytes(int pixSize) {
         int W = getWidth();
         int H = getHeight();
+        int[] pixels = data.getArray();
         byte[] bytes;
 
         if(pixSize == 4) {
             bytes = new byte[W*H*4];
             for(int h=0, p=0; h<H; h++) {
-                for(int w=0; w<W; w++) {
-                    int i = data[h][w];
+                for(int w=0, k=data.index(0, h); w<W; w++) {
+                    int i = pixels[k++];
                     // no need to & 0xFF as cast only take the last byte
                     bytes[p++] = (byte)(i >> 24);
                     bytes[p++] = (byte)(i >> 16);
@@ -258,8 +348,8 @@ public class Pattern {
         else {
             bytes = new byte[W*H*2];
             for(int h=0, p=0; h<H; h++) {
-                for(int w=0; w<W; w++) {
-                    int i = data[h][w];
+                for(int w=0, k=data.index(0, h); w<W; w++) {
+                    int i = pixels[k++];
                     // no need to & 0xFF as cast only take the last byte
                     bytes[p++] = (byte)(i >> 8);
                     bytes[p++] = (byte)(i);
@@ -310,11 +400,14 @@ public class Pattern {
  
     /** 
      * when dataScale changes (data rescaling), update parameters affected 
+     * 
+     * @param oldScale  dataScale the parameters are for. Pixel x of data binned by a scale
+     *                  covers original pixels [x * scale, x * scale + scale)
      */
-    public void onDataScaling()  { 
-        centerX /= dataScale;   
-        centerY /= dataScale;    
-        pixelSize *= dataScale;  
+    public void onDataScaling(int oldScale)  { 
+        centerX = ((centerX * oldScale + (oldScale - 1) / 2.0) - (dataScale - 1) / 2.0) / dataScale;
+        centerY = ((centerY * oldScale + (oldScale - 1) / 2.0) - (dataScale - 1) / 2.0) / dataScale;
+        pixelSize *= (double) dataScale / oldScale;  
         UIParameter.refresh(); 
     }
 
@@ -322,26 +415,34 @@ public class Pattern {
     /**
      * replace this pattern's data array with a new one, set center and create a new mask
      */
-    public void setPatternData(int[][] newData) {
+    public void setPatternData(PixelBuffer newData) {
         data = newData;
-        int height = data.length;
-        int width = data[0].length;
+        dataVersion++;
+        int height = data.getHeight();
+        int width = data.getWidth();
         centerX = (width - 1) / 2.0;
         centerY = (height - 1) / 2.0;
         mask = new byte[height][width];
     }
 
     /** 
-     * restore data to fit the screen 
+     * bin data by the smallest N x N that makes it fit the screen, averaging unmasked pixels
      */
     public void scaleFit() {  
-        if(isScaleFit) {
+        if(isScaleFit || myDisplay == null || myDisplay.getHeight() < 1) {
+            return;
+        }
+
+        int n = (data.getHeight() + myDisplay.getHeight() - 1) / myDisplay.getHeight();
+        if(n < 2) {
             return;
         }
 
+        PixelBuffer binned = PixelBinning.bin(data, mask, n, PixelBinning.Mode.MEAN);
+        byte[][] binnedMask = PixelBinning.binMask(mask, n);
+        rescaleData(binned, n);
+        mask = binnedMask;
         isScaleFit = true;
-        recalcDisplayScale(data0.length);
-        setPatternData(data0);
         PatternProcessor.createPatternImage(this, null);
     }
 
@@ -354,18 +455,28 @@ public class Pattern {
         }
 
         isScaleFit = false;
-        dataScale = 1;
-        onDataScaling();
-        setPatternData(PatternUtil.copy2dArray(data0));
+        rescaleData(data0.copy(), 1);
 
         PatternProcessor.createPatternImage(this, null);
     }
 
+    // replace data by newData at a new dataScale, keeping the center where it was on the pattern
+    private void rescaleData(PixelBuffer newData, int newScale) {
+        double x = centerX;
+        double y = centerY;
+        int oldScale = dataScale;
+        setPatternData(newData);
+        centerX = x;
+        centerY = y;
+        dataScale = newScale;
+        onDataScaling(oldScale);
+    }
+
     /** 
      * rotate the data array by degree 
      */
     public void rotateData(double degree) {
-        int[][] newData = ImageRotation.rotate(data, degree, centerX, centerY);
+        PixelBuffer newData = ImageRotation.rotate(data, degree, centerX, centerY);
         setPatternData(newData);
         PatternProcessor.createPatternImage(this, null);
     }
@@ -375,16 +486,8 @@ public class Pattern {
      */
     public void flipDataHorizontal() {
         if(data != null) {
-            int H = data.length;
-            int W = data[0].length;
-
-            for(int h=0; h<H; h++) {
-                for(int w=0; w<W/2; w++) {
-                    int tmp = data[h][w];
-                    data[h][w] = data[h][W-1-w];
-                    data[h][W-1-w] = tmp;
-                }
-            }
+            data.flipHorizontal();
+            dataVersion++;
         }
         PatternProcessor.createPatternImage(this, null);
     }
@@ -394,16 +497,8 @@ public class Pattern {
      */
     public void flipDataVertical() {
         if(data != null) {
-            int H = data.length;
-            int W = data[0].length;
-
-            for(int h=0; h<H/2; h++) {
-                for(int w=0; w<W; w++) {
-                    int tmp = data[h][w];
-                    data[h][w] = data[H-1-h][w];
-                    data[H-1-h][w] = tmp;
-                }
-            }
+            data.flipVertical();
+            dataVersion++;
         }
         PatternProcessor.createPatternImage(this, null);
     }
@@ -445,29 +540,96 @@ public class Pattern {
      * return if the reciprocal has been calculated
      */
     public boolean hasReciprocal() {
-        return false; // TODO
+        return isParameterDefined(false);
     }
 
 
     /**
-     * update reciprocal info
+     * check the parameters the reciprocal needs. Cheap, e.g., on every parameter refresh:
+     * the per pixel tables are built on first lookup, see getReciprocalTables()
      */
     public void updateReciprocal(boolean verbose) {
-        // TODO
+        isParameterDefined(verbose);
     }
 
     /**
-     * return a list of pixels whose resolution matches Resolution r
+     * return a list of pixels whose resolution matches Resolution r, in display coordinates
      */
     public ArrayList<Point> getResolutionPoints(Resolution r) {
-        return null; // TODO
+        if(!isParameterDefined(false) || r.getR() < EPS) {
+            return null;
+        }
+        ReciprocalGeometry geometry = new ReciprocalGeometry(this);
+        if(1 / r.getR() > geometry.getBounds()[2]) {
+            return null;
+        }
+
+        // sweep the ring at about one point per display pixel of its circumference
+        double D = 1 / r.getR();
+        double[] xy = new double[2];
+        int np = 360;
+        if(geometry.ring2xy(D, 0, xy)) {
+            double dx = xy[0] - centerX, dy = xy[1] - centerY;
+            np = Math.max(np, (int) (2 * Math.PI * Math.sqrt(dx*dx + dy*dy) / displayScale));
+        }
+
+        ArrayList<Point> points = new ArrayList<Point>();
+        for(int i = 0; i < np; i++) {
+            if(geometry.ring2xy(D, 2 * Math.PI * i / np, xy)) {
+                addDisplayPoint(xy, points);
+            }
+        }
+        return points;
     }
 
     /**
-     * return layerlines, each as an ArrayList of Points
+     * return layerlines, each as an ArrayList of Points in display coordinates
+     *
+     * @param r  fiber repeat distance (angstrom), layer line l is at Z = l / r
      */
     public ArrayList<ArrayList<Point>> getLayerLines(double r) {
-        return null; // TODO
+        if(!isParameterDefined(false) || r < EPS) {
+            return null;
+        }
+
+        // bounds from the edges, so dragging a parameter builds no per pixel tables
+        ReciprocalGeometry geometry = new ReciprocalGeometry(this);
+        double[] bounds = geometry.getBounds();
+        double maxR = bounds[0];
+        int lmax = (int) (bounds[1] * r);
+        int ns = 2 * Math.max(getWidth(), getHeight());
+        double[] xy = new double[2];
+
+        ArrayList<ArrayList<Point>> lines = new ArrayList<ArrayList<Point>>();
+        for(int l = -lmax; l <= lmax; l++) {
+            // each stretch of the line on the pattern is a polyline of its own
+            ArrayList<Point> points = new ArrayList<Point>();
+            for(int i = 0; i <= ns; i++) {
+                double R = maxR * (2.0 * i / ns - 1);
+                if(geometry.RZ2xy(R, l / r, xy) && xy[0] >= 0 && xy[0] < getWidth() && xy[1] >= 0 && xy[1] < getHeight()) {
+                    addDisplayPoint(xy, points);
+                }
+                else if(!points.isEmpty()) {
+                    lines.add(points);
+                    points = new ArrayList<Point>();
+                }
+            }
+            if(!points.isEmpty()) {
+                lines.add(points);
+            }
+        }
+        return lines;
+    }
+
+    // add data pixel xy as a display point, if on the pattern and not a repeat of the last one
+    private void addDisplayPoint(double[] xy, ArrayList<Point> points) {
+        if(xy[0] < 0 || xy[0] >= getWidth() || xy[1] < 0 || xy[1] >= getHeight()) {
+            return;
+        }
+        Point p = new Point((int) (xy[0] / displayScale + 0.5), (int) (xy[1] / displayScale + 0.5));
+        if(points.isEmpty() || !p.equals(points.get(points.size() - 1))) {
+            points.add(p);
+        }
     }
 
 
@@ -483,7 +645,23 @@ public class Pattern {
      * transform a point from detector space to reciprocal space (R & Z)
      */
     public boolean xy2RZ(double x, double y, double[] RZ) {
-        return true; // TODO
+        ReciprocalTables tables = getReciprocalTables();
+        if(tables == null) {
+            return false;
+        }
+
+        int k = tables.index(x, y);
+        if(k >= 0) {
+            RZ[0] = tables.getR()[k];
+            RZ[1] = tables.getZ()[k];
+        }
+        else {
+            double[] rzda = new double[4];
+            tables.getGeometry().xy2RZDA(x, y, rzda);
+            RZ[0] = rzda[0];
+            RZ[1] = rzda[1];
+        }
+        return true;
     }
 
 
@@ -491,7 +669,11 @@ public class Pattern {
      * transform a point from detector space to reciprocal space (R & L)
      */
     public boolean xy2RL(double x, double y, double[] RL) {
-        return true; // TODO
+        if(repeat < EPS || !xy2RZ(x, y, RL)) {
+            return false;
+        }
+        RL[1] *= repeat;
+        return true;
     }
 
 
@@ -499,7 +681,17 @@ public class Pattern {
      * transform a point from detector space to reciprocal space (R & Z & incident Angle)
      */
     public boolean xy2RZA(double x, double y, double[] RZA) {
-        return true; // TODO
+        if(!isParameterDefined(false)) {
+            return false;
+        }
+
+        // the incident angle is not tabulated, it is only needed for a few points
+        double[] rzda = new double[4];
+        new ReciprocalGeometry(this).xy2RZDA(x, y, rzda);
+        RZA[0] = rzda[0];
+        RZA[1] = rzda[1];
+        RZA[2] = Math.toDegrees(Math.acos(Math.min(1, rzda[3])));
+        return true;
     }
 
 
@@ -507,7 +699,7 @@ public class Pattern {
      * transform a point (R & L) from reciprocal space to detector space
      */
     public boolean RL2xy(double RR, double LL, double[] xy) {
-        return true; // TODO
+        return repeat >= EPS && RZ2xy(RR, LL / repeat, xy);
     }
 
 
@@ -515,7 +707,7 @@ public class Pattern {
      * transform a point(R & Z) from reciprocal space to detector space
      */
     public boolean RZ2xy(double R, double Z, double[] xy) {
-        return true; // TODO
+        return isParameterDefined(false) && new ReciprocalGeometry(this).RZ2xy(R, Z, xy);
     }
 
 } // class Pattern
@@ -29,7 +29,10 @@
 package us.fibernet.fiberj;
 
 import java.awt.Dimension;
+import java.awt.Graphics;
 import java.awt.Point;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.awt.image.BufferedImage;
@@ -37,7 +40,9 @@ import javax.swing.ImageIcon;
 import javax.swing.SwingConstants;
 import javax.swing.BorderFactory;
 import javax.swing.JLabel;
-import java.io.IOException;
+import javax.swing.JViewport;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 /**
  * A class to display a pattern as a BufferedImage
@@ -45,6 +50,8 @@ import java.io.IOException;
  */
 public class PatternDisplay {
 
+    private static final int SETTLE_DELAY = 250;  // ms without resize before smooth scaling
+
     private UIPattern imagePanel;
     private JLabel imageLabel;
     private BufferedImage currIndexImage;
@@ -54,6 +61,14 @@ public class PatternDisplay {
     private Pattern myPattern;
     private PlotKit myPlotKit;
     private DrawKit myDrawKit;
+    private RenderScheduler myRenderer;
+    private TileRenderer myTiles;    // shows a scrolled pattern, see reloadImageLabel()
+    private ColorLut currentLut;
+    private boolean isTiled;
+    private ImageScaler myScaler;    // origIndexImage to display size, see showScaled()
+    private ImageIcon scaledIcon;
+    private Timer settleTimer;
+    private PatternOverlay myOverlay;  // scene, cursor and plot shapes, painted over the image
     
     /**
      * Create a PatternDisplay on a UIPanel with a Pattern
@@ -66,13 +81,31 @@ public class PatternDisplay {
         
         imagePanel.setPattern(this);
         myPattern.setDisplay(this);
+        imageLabel = new ImageLabel();
+        myOverlay = new PatternOverlay(imageLabel);  // before the kits, which draw on it
         myPlotKit = new PlotKit(this);
         myDrawKit = new DrawKit(this);
+        myTiles = new TileRenderer();
+        myScaler = new ImageScaler();
+        scaledIcon = new ImageIcon();
+        settleTimer = new Timer(SETTLE_DELAY, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                if(!isTiled && origIndexImage != null) {
+                    showScaled(ImageScaler.Quality.SMOOTH);
+                }
+            }
+        });
+        settleTimer.setRepeats(false);
+        myRenderer = new RenderScheduler(new RenderScheduler.Target() {
+            public void imageRendered(BufferedImage image) {
+                origIndexImage = image;
+                reloadImageLabel();
+            }
+        });
         
         imagePanel.removeAll();
         imagePanel.setLayout(null);
 
-        imageLabel = new JLabel();
         imageLabel.setHorizontalAlignment(SwingConstants.CENTER);
         imageLabel.setBorder(BorderFactory.createEmptyBorder());
         
@@ -98,9 +131,23 @@ public class PatternDisplay {
 
     // clean up
     public void close() {
+        myRenderer.cancel();
+        settleTimer.stop();
         closeColorControl();
     }
     
+    /**
+     * put the image back on the panel after something else was shown there, e.g., the
+     * preview of a pattern being loaded
+     */
+    public void reattach() {
+        imagePanel.setPattern(this);
+        imagePanel.removeAll();
+        imagePanel.add(imageLabel);
+        resizeImagePanel();
+        imagePanel.updateUI();
+    }
+    
     public int getWidth() {
         return imagePanel.getWidth();
     }
@@ -120,14 +167,17 @@ public class PatternDisplay {
     public PlotKit getPlotKit() {
         return myPlotKit;
     }
+
+    public PatternOverlay getOverlay() {
+        return myOverlay;
+    }
     
     public BufferedImage getDisplayImage() {
+        if(currIndexImage == null && isTiled) {
+            currIndexImage = myTiles.renderAll();  // whole image asked for, e.g., to be saved
+        }
         return currIndexImage;
     }
-
-    public BufferedImage getDisplayImageCopy() {
-        return PatternUtil.copyBufferedImage(currIndexImage);
-    }
     
     public void openColorControl() {
         myColormapControl.open();
@@ -142,10 +192,6 @@ public class PatternDisplay {
         return myColormapControl.isOpen();
     }
     
-    public void setDisplayImage(BufferedImage image) {
-        imageLabel.setIcon(new ImageIcon(image));
-    }
-
     public void plotDraw(Point p1, Point p2) {
         myPlotKit.plotDraw(p1, p2);
     }
@@ -158,33 +204,94 @@ public class PatternDisplay {
         imageLabel.setSize(newWidth, newHeight);
         imageLabel.setPreferredSize(new Dimension(newWidth, newHeight));
         myPattern.recalcDisplayScale(newHeight);
+        myOverlay.clear();   // drawn in the old display coordinates
+        myDrawKit.redraw();
         reloadImageLabel();
     }
 
     // refresh the label according to the size of the frame and fit the currIndexImage too.
+    // A scrolled pattern is shown by myTiles instead, which colors only the visible tiles
+    // when painted, so nothing the size of the pattern is rendered or kept.
     private void reloadImageLabel() {
         //System.out.println("new panel size: " + imagePanel.getWidth() + ", " + imagePanel.getHeight());
         imageLabel.setBounds(0, 0, imagePanel.getWidth(), imagePanel.getHeight());
-        currIndexImage = PatternUtil.fitImage(imageLabel, origIndexImage);   // currIndexImage size might change
+        if(currentLut == null) {
+            return;
+        }
+
+        isTiled = SwingUtilities.getAncestorOfClass(JViewport.class, imagePanel) != null;
+        if(isTiled) {
+            myRenderer.cancel();
+            settleTimer.stop();
+            myScaler.flush();
+            origIndexImage = null;
+            currIndexImage = null;
+            myTiles.setSource(myPattern.getDisplayData(), currentLut, imageLabel.getWidth(), imageLabel.getHeight());
+            imageLabel.setIcon(myTiles);
+            imageLabel.repaint();
+            return;
+        }
+
+        myTiles.flush();
+        if(origIndexImage == null) {
+            origIndexImage = PatternUtil.calcBufferedImage(myPattern.getDisplayData(), currentLut);
+        }
+        // nearest neighbour while the size or colormap keeps changing, smooth once it settles
+        showScaled(ImageScaler.Quality.FAST);
+        settleTimer.restart();
+    }
+
+    // show origIndexImage scaled to the label, reusing the icon and scaled image buffers
+    private void showScaled(ImageScaler.Quality quality) {
+        currIndexImage = myScaler.scale(origIndexImage, imageLabel.getWidth(), imageLabel.getHeight(), quality);
+        if(currIndexImage == null) {
+            return;
+        }
+        scaledIcon.setImage(currIndexImage);
+        if(imageLabel.getIcon() != scaledIcon) {
+            imageLabel.setIcon(scaledIcon);
+        }
+        imageLabel.repaint();
     }
     
     
     /**
-     * Generate an new indexed BufferedImage based one the originalArray and
-     * current colormap. Called when a colormap change occurs
+     * Generate an new BufferedImage from the display data of the pattern and a color
+     * lookup table. Called when a colormap change occurs
      */
-    public void generateIndexedImage(int[][] imageArray) {
+    public void generateImage(ColorLut lut) {
+        myRenderer.cancel();
+        currentLut = lut;
+        origIndexImage = null;
+        //currIndexImage = PatternUtil.copyBufferedImage(origIndexImage);
+        reloadImageLabel();
+    }
 
-        try {
-            origIndexImage = PatternUtil.calcBufferedImage(imageArray);
-            //currIndexImage = PatternUtil.copyBufferedImage(origIndexImage);
-            reloadImageLabel();
+    /**
+     * Like generateImage(), but render in the background and show the image when done.
+     * Used while colormap controls are dragged, requests made faster than images can be
+     * rendered are coalesced.
+     */
+    public void requestImage(ColorLut lut) {
+        currentLut = lut;
+        if(isTiled) {
+            reloadImageLabel();  // only the visible tiles get colored, on the next paint
         }
-        catch (IOException e) {
-            System.out.println("Could not generate indexed image.");
+        else {
+            myRenderer.request(myPattern.getDisplayData(), lut);
+        }
+    }
+
+
+    // the label showing the pattern, with the overlay painted on top
+    @SuppressWarnings("serial")
+    private class ImageLabel extends JLabel {
+        @Override
+        protected void paintComponent(Graphics g) {
+            super.paintComponent(g);
+            myOverlay.paint(g);
         }
     }
-    
 
 }
 
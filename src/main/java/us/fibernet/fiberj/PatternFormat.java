@@ -0,0 +1,108 @@
+/*
+ * Copyright Wen Bian. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list
+ *   of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer listed in this license in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * - Neither the name of the copyright holders nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package us.fibernet.fiberj;
+
+import java.io.IOException;
+import java.util.EnumSet;
+
+/**
+ * A pattern file format known to PatternReader.
+ *
+ * A format recognizes its files by their first bytes, can probe a file for its size
+ * without decoding it, and reads a file into a Pattern. Formats are registered with
+ * PatternReader.register().
+ */
+public interface PatternFormat {
+
+    /** what a format can do beyond reading a whole file */
+    enum Capability {
+        HEADER_ONLY,   // probe() reads only the file header
+        MAPPED,        // image data is read through a memory mapping, see open()
+        MULTI_FRAME    // a file may hold a series of frames, see PatternReader.readPatternSeries()
+    }
+
+    /**
+     * A file of a MAPPED format, opened once: its header parsed and its image data mapped,
+     * so its size, a preview and the pattern are all read without reopening it.
+     */
+    interface MappedFile {
+
+        PatternInfo getInfo();
+
+        /**
+         * read a low resolution preview of (the first frame of) the file, at most size
+         * pixels on its longer side, sampled from the mapping without decoding the rest
+         *
+         * @return  null if the image is no larger than size, or its layout needs about a
+         *          full decode for a preview
+         */
+        PixelBuffer readPreview(int size) throws IOException;
+
+        /**
+         * read (the first frame of) the file
+         */
+        Pattern read() throws IOException;
+    }
+
+    /** number of leading bytes of a file passed to matches() */
+    int MAGIC_LENGTH = 64;
+
+    String getName();
+
+    EnumSet<Capability> getCapabilities();
+
+    /**
+     * whether a file starting with head[0, length) is in this format
+     */
+    boolean matches(byte[] head, int length);
+
+    /**
+     * whether a file name has an extension of this format, used if no format matches the
+     * first bytes of a file
+     */
+    boolean matchesName(String fileName);
+
+    /**
+     * return the size and frame count of a file without decoding its image data
+     */
+    PatternInfo probe(String fileName) throws IOException;
+
+    /**
+     * read (the first frame of) a file
+     */
+    Pattern read(String fileName) throws IOException;
+
+    /**
+     * open a file of a format with the MAPPED capability
+     *
+     * @return  null for other formats
+     */
+    MappedFile open(String fileName) throws IOException;
+
+} // interface PatternFormat
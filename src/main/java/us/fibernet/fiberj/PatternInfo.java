@@ -0,0 +1,62 @@
+/*
+ * Copyright Wen Bian. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list
+ *   of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer listed in this license in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * - Neither the name of the copyright holders nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package us.fibernet.fiberj;
+
+/**
+ * Basic facts about a pattern file, as found by PatternReader.probe() without decoding
+ * the image data.
+ */
+public final class PatternInfo {
+
+    private final String fileName;
+    private final PatternFormat format;
+    private final int width;
+    private final int height;
+    private final int frameCount;
+
+    public PatternInfo(String fileName, PatternFormat format, int width, int height, int frameCount) {
+        this.fileName = fileName;
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.frameCount = frameCount;
+    }
+
+    public String getFileName()        { return fileName;      }
+    public PatternFormat getFormat()   { return format;        }
+    public int getWidth()              { return width;         }
+    public int getHeight()             { return height;        }
+    public int getFrameCount()         { return frameCount;    }
+
+    public String toString() {
+        return fileName + ": " + format.getName() + " " + width + " x " + height +
+               (frameCount > 1 ? ", " + frameCount + " frames" : "");
+    }
+
+} // class PatternInfo
@@ -0,0 +1,155 @@
+/*
+ * Copyright Wen Bian. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list
+ *   of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer listed in this license in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * - Neither the name of the copyright holders nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package us.fibernet.fiberj;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.SwingWorker;
+
+/**
+ * Loads a pattern file on a background thread so the Swing event thread stays responsive.
+ *
+ * The file is decoded on a worker, its format detected once. A file in a MAPPED format is
+ * opened once (see PatternFormat.MappedFile): for a large image, a low resolution preview
+ * sampled from the mapping is shown while the full resolution Pattern is decoded, which is
+ * then swapped in by PatternProcessor on the event thread. Progress (0 - 100) is reported
+ * through the "progress" property and on the message bar. A load can be cancelled at any
+ * time; a cancelled load never replaces the current pattern.
+ */
+public class PatternLoader extends SwingWorker<Pattern, PixelBuffer> {
+
+    private static final int PREVIEW_SIZE = 512;  // longest side of the preview image
+
+    private final String[] args;
+    private volatile PatternInfo info;  // size of the file being loaded, if probed
+    private String error;               // why the load failed, set in done()
+
+    /**
+     * @param args  image file path and file attributes if applicable
+     */
+    public PatternLoader(String... args) {
+        this.args = args;
+    }
+
+    public String getFileName() {
+        return args[0];
+    }
+
+    /**
+     * return the size and frame count of the file, known early for formats whose header can
+     * be probed cheaply, or null
+     */
+    public PatternInfo getInfo() {
+        return info;
+    }
+
+    /**
+     * return the message of the exception the load failed with, or null
+     */
+    public String getError() {
+        return error;
+    }
+
+    @Override
+    protected Pattern doInBackground() throws IOException {
+
+        // a raw data file, described by its attributes
+        if(args.length > 1) {
+            return PatternReader.readPattern(args);
+        }
+
+        PatternFormat format = PatternReader.findFormat(args[0]);
+        if(format == null || !format.getCapabilities().contains(PatternFormat.Capability.MAPPED)) {
+            if(format != null && format.getCapabilities().contains(PatternFormat.Capability.HEADER_ONLY)) {
+                try {
+                    info = format.probe(args[0]);
+                }
+                catch(Exception e) {
+                    info = null;  // reading will report the problem
+                }
+            }
+            setProgress(20);
+            return PatternReader.readPattern(format, args[0]);
+        }
+
+        // map the file once, for the size, the preview and the full decode
+        PatternFormat.MappedFile file = format.open(args[0]);
+        info = file.getInfo();
+        setProgress(5);
+
+        PixelBuffer preview = null;
+        try {
+            preview = file.readPreview(PREVIEW_SIZE);
+        }
+        catch(Exception e) {
+            preview = null;  // the full decode will report the problem
+        }
+        if(preview != null && !isCancelled()) {
+            publish(preview);
+        }
+        setProgress(20);
+
+        Pattern pattern = isCancelled() ? null : file.read();
+        setProgress(90);
+
+        return isCancelled() ? null : pattern;
+    }
+
+    @Override
+    protected void process(List<PixelBuffer> previews) {
+        if(!isCancelled()) {
+            PatternProcessor.showPreview(this, previews.get(previews.size() - 1));
+        }
+    }
+
+    @Override
+    protected void done() {
+        Pattern pattern = null;
+
+        try {
+            pattern = get();
+        }
+        catch(CancellationException e) {
+            return;
+        }
+        catch(InterruptedException e) {
+            return;
+        }
+        catch(ExecutionException e) {
+            e.getCause().printStackTrace();
+            error = e.getCause().getMessage();
+        }
+
+        PatternProcessor.loadFinished(this, pattern);
+    }
+
+} // class PatternLoader
@@ -0,0 +1,133 @@
+/*
+ * Copyright Wen Bian. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list
+ *   of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer listed in this license in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * - Neither the name of the copyright holders nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package us.fibernet.fiberj;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.JComponent;
+
+/**
+ * Shapes drawn over a pattern display: the layers of the retained scene (see SceneLayer),
+ * the shape being plotted and the cursor, in that order.
+ *
+ * They are painted by the host component after the pattern image, instead of being drawn
+ * into a copy of it. Moving a shape repaints only the rectangles it leaves and enters, so
+ * pointer interaction costs the same whatever the size of the image.
+ */
+public class PatternOverlay {
+
+    private static final int MARGIN = 2;   // covers the stroke around a shape's bounds
+
+    private JComponent host;
+    private Shape cursorShape;
+    private Color cursorColor = Color.WHITE;
+    private Shape plotShape;
+    private Color plotColor;
+    private List<SceneLayer<?>> layers = new ArrayList<SceneLayer<?>>();
+
+    /**
+     * @param host  the component showing the pattern, whose paintComponent() calls paint()
+     */
+    public PatternOverlay(JComponent host) {
+        this.host = host;
+    }
+
+    /** paint layer as part of the scene, above the layers added before it */
+    public void addLayer(SceneLayer<?> layer) {
+        layers.add(layer);
+    }
+
+    /** repaint area, e.g., as returned by SceneLayer.update(); null for nothing */
+    public void repaint(Rectangle area) {
+        if(area != null && !area.isEmpty()) {
+            host.repaint(area);
+        }
+    }
+
+    /** show the cursor as shape, in display coordinates; null to hide it */
+    public void setCursorShape(Shape shape) {
+        Shape old = cursorShape;
+        cursorShape = shape;
+        repaint(old);
+        repaint(shape);
+    }
+
+    /** show the shape being plotted, in display coordinates; null to hide it */
+    public void setPlotShape(Shape shape, Color color) {
+        Shape old = plotShape;
+        plotShape = shape;
+        plotColor = color;
+        repaint(old);
+        repaint(shape);
+    }
+
+    /** remove all shapes, e.g., when display coordinates change */
+    public void clear() {
+        setCursorShape(null);
+        setPlotShape(null, null);
+    }
+
+    /**
+     * paint the shapes, called by the host after it has painted the pattern
+     */
+    public void paint(Graphics g) {
+        Graphics2D g2d = (Graphics2D) g.create();
+        try {
+            for(SceneLayer<?> layer : layers) {
+                layer.paint(g2d);
+            }
+            if(plotShape != null) {
+                g2d.setColor(plotColor);
+                g2d.draw(plotShape);
+            }
+            if(cursorShape != null) {
+                g2d.setColor(cursorColor);
+                g2d.draw(cursorShape);
+            }
+        }
+        finally {
+            g2d.dispose();
+        }
+    }
+
+    // repaint the part of host covered by shape
+    private void repaint(Shape shape) {
+        if(shape != null) {
+            Rectangle r = shape.getBounds();
+            r.grow(MARGIN, MARGIN);
+            host.repaint(r);
+        }
+    }
+
+} // class PatternOverlay
@@ -28,8 +28,8 @@
 
 package us.fibernet.fiberj;
 
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * PLR data headerFormat:
@@ -46,6 +46,9 @@ import java.io.IOException;
  *  "%6.1f%12.1f    %1d    0.000" (angle, x-ray-intensity, binCount)
  *  ...
  *
+ * The file is parsed as a stream of bytes: data lines are located in a reusable byte
+ * buffer and their fixed-width columns converted by parseNumber() without creating any
+ * String.
  */
 public class PatternPlr {
 
@@ -53,13 +56,35 @@ public class PatternPlr {
     int[] IQ = {0, 0, 0, 0};
     double RMIN, WR, DR, XW, THMIN, DTHET, AME, BME, SFD, SFD2, REPEAT;
 
-    int[][] dataPlr;  // to hold intensity data in polar headerFormat
+    PixelBuffer dataPlr;  // intensity data in polar headerFormat, NTHET x NR
+    float[] anglePlr;     // angle of each sample, same layout as dataPlr
+    int[] countPlr;       // bin count of each sample, same layout as dataPlr
 
     static String lastPar = "REPEAT";    // last parameter name on the title line
     static String headerTerm = "99999";  // terminator string of header section
     static String headerFormat = "%5d%3d%6.1f%7d%6.1f%10.6f%9.5f%6.2f%6.2f%5d%5s%5s%12.4f" +
                                  "%5d%3d%3d%3d%3d%3d%3d%12.4f%12.4f";
 
+    // data line columns, "%6.1f%12.1f    %1d    0.000"
+    private static final int ANGLE_END = 6;
+    private static final int INTENSITY_END = 18;
+
+    private static final double[] POW10 = new double[19];
+    static {
+        POW10[0] = 1;
+        for(int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
+    // line scanner state
+    private InputStream in;
+    private byte[] buf = new byte[1 << 16];
+    private int bufEnd;     // end of valid bytes in buf
+    private int lineStart;  // current line is buf[lineStart, lineEnd)
+    private int lineEnd;
+    private int next;       // start of the next line
+
     public PatternPlr() {
     }
 
@@ -67,59 +92,268 @@ public class PatternPlr {
      * @return  2D image data in Cartesian headerFormat
      */
     public int[][] getImageData() {
+        PixelBuffer pixels = getImagePixels();
+        return pixels == null ? null : pixels.toArray();
+    }
+
+    /**
+     * @return  image data in Cartesian headerFormat
+     */
+    public PixelBuffer getImagePixels() {
 
         if(dataPlr == null) {
             return null;
         }
 
-        int width, height;
-        width = height = NR + roundit(RMIN);
-        return plrToCartesian(width, height);
+        return plrToCartesian(getImageSize(), getImageSize());
     }
 
+    /** intensity in polar format, a row for each R and a column for each angle */
+    public PixelBuffer getPolarData()   { return dataPlr;    }
+
+    /** angle column of the data, in the layout of getPolarData() */
+    public float[] getAngles()          { return anglePlr;   }
+
+    /** bin count column of the data, in the layout of getPolarData() */
+    public int[] getBinCounts()         { return countPlr;   }
+
     /**
-     * @throws Exception  both IO and NumberFormat Exceptions possible
+     * @throws IOException  on read errors or malformed data
      */
-    public boolean parseData(BufferedReader br) throws Exception {
+    public boolean parseData(InputStream input) throws IOException {
 
-        // parse header. a blank line signals end of header
-        String header="", line;
-        try {
-            while((line = br.readLine()) != null && !line.equals(headerTerm)) {
-                header += line;
+        if(!parseHeader(input)) {
+            return false;
+        }
+
+        // read data for each R, each contain NTHET pieces of data
+        // TODO: set NR to (NR + RMIN) ?
+        dataPlr = new PixelBuffer(NTHET, NR);
+        anglePlr = new float[NR * NTHET];
+        countPlr = new int[NR * NTHET];
+        int[] intensity = dataPlr.getArray();
+
+        for(int p = 0; p < intensity.length; p++) {
+            do {
+                if(!nextLine()) {
+                    dataPlr = null;
+                    throw new IOException("PLR data ends after " + p + " of " + intensity.length + " samples");
+                }
+            } while(lineStart == lineEnd);
+
+            int end = Math.min(lineEnd, lineStart + INTENSITY_END);
+            double value = parseNumber(buf, lineStart + ANGLE_END, end);
+            if(Double.isNaN(value)) {
+                dataPlr = null;
+                throw new IOException("invalid PLR data line " + (p + 1));
             }
+            intensity[p] = roundit(value);
+
+            double angle = parseNumber(buf, lineStart, Math.min(lineEnd, lineStart + ANGLE_END));
+            anglePlr[p] = Double.isNaN(angle) ? 0 : (float) angle;
+
+            // bin count is the first number after the intensity column
+            int c = end;
+            while(c < lineEnd && buf[c] == ' ') {
+                c++;
+            }
+            int e = c;
+            while(e < lineEnd && buf[e] != ' ') {
+                e++;
+            }
+            double count = parseNumber(buf, c, e);
+            countPlr[p] = Double.isNaN(count) ? 0 : roundit(count);
         }
-        catch (IOException e) {
-            e.printStackTrace();
+
+        return true;
+    }
+
+    /**
+     * Read and parse only the header, leaving input at the first data line
+     */
+    public boolean parseHeader(InputStream input) throws IOException {
+
+        in = input;
+        bufEnd = next = 0;
+
+        // parse header, which ends at a line of headerTerm
+        StringBuilder header = new StringBuilder();
+        byte[] term = headerTerm.getBytes("US-ASCII");
+        while(nextLine() && !lineEquals(term)) {
+            for(int i = lineStart; i < lineEnd; i++) {
+                header.append((char) (buf[i] & 0xFF));
+            }
+        }
+
+        return parseHeader(header.toString()) && NR > 0 && NTHET > 0;
+    }
+
+    /** width and height of the Cartesian image, known once the header is parsed */
+    public int getImageSize() {
+        return NR + roundit(RMIN);
+    }
+
+    /*
+     * Advance to the next line, filling buf from the stream as needed. Return false at end
+     * of stream. The line excludes its terminating "\n" or "\r\n".
+     */
+    private boolean nextLine() throws IOException {
+
+        int scan = next;
+        while(true) {
+            while(scan < bufEnd && buf[scan] != '\n') {
+                scan++;
+            }
+            if(scan < bufEnd) {
+                break;
+            }
+
+            // need more bytes, move the partial line to the front and refill
+            int partial = bufEnd - next;
+            if(partial == buf.length) {
+                byte[] bigger = new byte[buf.length * 2];
+                System.arraycopy(buf, next, bigger, 0, partial);
+                buf = bigger;
+            }
+            else if(next > 0) {
+                System.arraycopy(buf, next, buf, 0, partial);
+            }
+            scan -= next;
+            next = 0;
+            bufEnd = partial;
+
+            int n = in.read(buf, bufEnd, buf.length - bufEnd);
+            if(n < 0) {
+                if(bufEnd == 0) {
+                    return false;
+                }
+                break;  // last line without a line terminator
+            }
+            bufEnd += n;
+        }
+
+        lineStart = next;
+        lineEnd = scan;
+        next = scan < bufEnd ? scan + 1 : bufEnd;
+        if(lineEnd > lineStart && buf[lineEnd - 1] == '\r') {
+            lineEnd--;
+        }
+        return true;
+    }
+
+    // whether the current line, ignoring surrounding blanks, equals s
+    private boolean lineEquals(byte[] s) {
+        int a = lineStart, b = lineEnd;
+        while(a < b && buf[a] == ' ') {
+            a++;
+        }
+        while(b > a && buf[b - 1] == ' ') {
+            b--;
+        }
+        if(b - a != s.length) {
             return false;
         }
+        for(int i = 0; i < s.length; i++) {
+            if(buf[a + i] != s[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parse a decimal number, e.g., " -12.5", "3", "1.5E-3" or Fortran "1.5D-3", from the
+     * ASCII bytes b[from, to), ignoring surrounding blanks.
+     *
+     * @return  the number, or NaN if the field is blank or not a number
+     */
+    static double parseNumber(byte[] b, int from, int to) {
+
+        while(from < to && b[from] == ' ') {
+            from++;
+        }
+        while(to > from && b[to - 1] == ' ') {
+            to--;
+        }
+        if(from >= to) {
+            return Double.NaN;
+        }
 
-        if(parseHeader(header)) {  // header read successfully
-
-            // read data for each R, each contain NTHET pieces of data
-            // TODO: set NR to (NR + RMIN) ?
-            dataPlr = new int[NR][NTHET];
-            //System.out.println("NR=" + NR + ", NT=" + NTHET);
-
-            // TODO:
-            // read only intensity at this time
-            // "%6.1f%12.1f    %1d    0.000" (angle, x-ray-intensity, binCount)
-            try {
-                for(int i=0; i<NR; i++) {
-                    for(int j=0; j<NTHET; j++) {
-                        line = br.readLine().trim();
-                        dataPlr[i][j] = roundit(Double.parseDouble(line.substring(6,18)));
+        int i = from;
+        boolean negative = false;
+        if(b[i] == '-' || b[i] == '+') {
+            negative = b[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;     // significant digits taken into mantissa
+        int scale = 0;      // decimal exponent adjustment
+        boolean seenDot = false, seenDigit = false;
+
+        for(; i < to; i++) {
+            int c = b[i];
+            if(c >= '0' && c <= '9') {
+                seenDigit = true;
+                if(digits < 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if(mantissa > 0) {
+                        digits++;
+                    }
+                    if(seenDot) {
+                        scale--;
                     }
                 }
+                else if(!seenDot) {
+                    scale++;
+                }
             }
-            catch (Exception e) {
-                e.printStackTrace();
-                dataPlr = null;
-                return false;
+            else if(c == '.' && !seenDot) {
+                seenDot = true;
+            }
+            else {
+                break;
             }
         }
 
-        return true;
+        if(!seenDigit) {
+            return Double.NaN;
+        }
+
+        if(i < to) {
+            int c = b[i];
+            if(c != 'E' && c != 'e' && c != 'D' && c != 'd') {
+                return Double.NaN;
+            }
+            i++;
+            boolean expNegative = false;
+            if(i < to && (b[i] == '-' || b[i] == '+')) {
+                expNegative = b[i] == '-';
+                i++;
+            }
+            if(i >= to) {
+                return Double.NaN;
+            }
+            int exp = 0;
+            for(; i < to; i++) {
+                c = b[i];
+                if(c < '0' || c > '9') {
+                    return Double.NaN;
+                }
+                exp = Math.min(exp * 10 + (c - '0'), 1000);
+            }
+            scale += expNegative ? -exp : exp;
+        }
+
+        double value = mantissa;
+        if(scale < 0) {
+            value = -scale < POW10.length ? value / POW10[-scale] : value * Math.pow(10, scale);
+        }
+        else if(scale > 0) {
+            value = scale < POW10.length ? value * POW10[scale] : value * Math.pow(10, scale);
+        }
+
+        return negative ? -value : value;
     }
 
     /**
@@ -191,75 +425,50 @@ public class PatternPlr {
      */
     public double[] extractNumberFromString(String numstr, String format, char fmtsep) {
 
-        String pattern = "[^" + fmtsep + "]";
-        int count = format.replaceAll(pattern, "").length();  // get number of fmtsep
+        // get the value of xx in each %xx.yy[dfs]
+        int count = 0;
+        int[] widths = new int[format.length()];
+        for(int fi = format.indexOf(fmtsep); fi >= 0; fi = format.indexOf(fmtsep, fi + 1)) {
+            int len = 0;
+            for(int k = fi + 1; k < format.length() && Character.isDigit(format.charAt(k)); k++) {
+                len = len * 10 + (format.charAt(k) - '0');
+            }
+            widths[count++] = len;
+        }
         if(count <= 0) {
             return null;
         }
 
-        double[] numberArray = new double[count];
-        int ni = 0;  // number of numbers parsed
-        int si = 0;  // current working currentIndex of numstr
-        int fi = format.indexOf(fmtsep, 0); // current working currentIndex of headerFormat
-
-        while(ni < count && si < numstr.length() && fi < format.length()) {
-
-            try {
-                int finext = format.indexOf(fmtsep, fi + 1);
-                if(finext < 0) {
-                    finext = format.length();
-                }
-
-                // get the value of xx in %xx.yy[dfs]%
-                int len = (int)Double.parseDouble( format.substring(fi + 1, finext - 1) );
-
-                try { // parse corresponding number
-                    numberArray[ni] = Double.parseDouble( numstr.substring(si, si + len) );
-                }
-                catch (NumberFormatException e) {
-                    ; //e.printStackTrace(); // just skip non-number field
-                }
+        byte[] bytes = new byte[numstr.length()];
+        for(int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) numstr.charAt(i);
+        }
 
-                /*
-                System.out.println(headerFormat);
-                for(int x=0; x<fi; x++)
-                    System.out.print(" ");
-                System.out.println("^" + len);
-
-                System.out.println(numstr);
-                for(int x=0; x<si; x++)
-                    System.out.print(" ");
-                for(int x=si; x<si+len; x++)
-                    System.out.print("^");
-                System.out.println("\n\n\n");
-                */
-
-                ++ni;
-                fi = finext;
-                si = si + len;
-            }
-            catch (NumberFormatException e) {
-                e.printStackTrace();
+        double[] numberArray = new double[count];
+        for(int ni = 0, si = 0; ni < count && si < bytes.length; si += widths[ni++]) {
+            double d = parseNumber(bytes, si, Math.min(si + widths[ni], bytes.length));
+            if(!Double.isNaN(d)) {  // just skip non-number field
+                numberArray[ni] = d;
             }
         }
 
         return numberArray;
-
     }
 
     // convert data from polar to Cartesian
-    private int[][] plrToCartesian(int width, int height)
+    private PixelBuffer plrToCartesian(int width, int height)
     {
-        int[][] dataCarte = new int[height][width];
-        int rmax = dataPlr.length;
-        int amax = dataPlr[0].length;
+        PixelBuffer dataCarte = new PixelBuffer(width, height);
+        int[] dst = dataCarte.getArray();
+        int rmax = dataPlr.getHeight();
+        int amax = dataPlr.getWidth();
 
-        for(int h=0; h<height; h++) {
-            for(int w=0; w<width; w++) {
+        for(int h=0, p=0; h<height; h++) {
+            for(int w=0; w<width; w++, p++) {
                 int r = roundit(Math.sqrt(h*h + w*w));
                 int a = roundit(Math.atan2(w, h) * 180 / Math.PI);
                 if(r < rmax && a < amax) {
-                    dataCarte[h][w] = dataPlr[r][a];
+                    dst[p] = dataPlr.get(a, r);
                 }
             }
         }
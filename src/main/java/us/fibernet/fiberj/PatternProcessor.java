@@ -29,9 +29,17 @@
 package us.fibernet.fiberj;
 
 import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.io.File;
 
+import javax.swing.ImageIcon;
+import javax.swing.JLabel;
 import javax.swing.JOptionPane;
+import javax.swing.SwingConstants;
 
 /**
  * A central processor for  pattern processing tasks
@@ -42,6 +50,8 @@ public final class PatternProcessor {
     private static Pattern currentPattern = null;  // currently only allow one active pattern
     private static PatternDisplay currentDisplay = null; 
     private static PlotDialog currentPlotter = null;
+    private static PatternLoader currentLoader = null;  // pattern file being loaded
+    private static JLabel previewLabel = null;          // its preview, shown in place of the current pattern
 
     public static Pattern getCurrentPattern() {
         return currentPattern;
@@ -86,7 +96,8 @@ public final class PatternProcessor {
     }
 
     /**
-     * Read an image file and create an a pattern image
+     * Read an image file and create an a pattern image. The file is read in the
+     * background, the current pattern stays until a preview or the new pattern is ready.
      * @param args  image file path and file attributes if applicable
      */
     public static synchronized void createPatternImage(String... args) {
@@ -94,23 +105,134 @@ public final class PatternProcessor {
             return;
         }
 
+        cancelLoading();
+
+        final String name = new File(args[0]).getName();
+        final PatternLoader loader = new PatternLoader(args);
+        loader.addPropertyChangeListener(new PropertyChangeListener() {
+            public void propertyChange(PropertyChangeEvent evt) {
+                if("progress".equals(evt.getPropertyName())) {
+                    PatternInfo info = loader.getInfo();
+                    String size = info == null ? "" : " (" + info.getWidth() + " x " + info.getHeight() +
+                                  (info.getFrameCount() > 1 ? ", frame 1 of " + info.getFrameCount() : "") + ")";
+                    UIMain.setMessage("loading " + name + size + " ... " + evt.getNewValue() + "%");
+                }
+            }
+        });
+        currentLoader = loader;
+        currentLoader.execute();
+    }
+
+    /**
+     * Cancel the pattern file being loaded, if any
+     */
+    public static synchronized void cancelLoading() {
+        if(currentLoader != null) {
+            currentLoader.cancel(true);
+            UIMain.setMessage("loading " + new File(currentLoader.getFileName()).getName() + " cancelled");
+            currentLoader = null;
+            hidePreview();
+        }
+    }
+
+    /**
+     * Display a low resolution preview of the pattern being loaded by loader. It is only
+     * an image in place of the current pattern's: the current pattern stays current, with
+     * its display, plots, parameters and mask, until the loaded one is swapped in, and is
+     * shown again if the load is cancelled or fails.
+     */
+    static synchronized void showPreview(PatternLoader loader, PixelBuffer preview) {
+        if(loader != currentLoader) {
+            return;
+        }
+
+        UIPattern panel = UIMain.getUIPattern();
+        int width = panel.getWidth();
+        int height = panel.getHeight();
+        if(width < 1 || height < 1) {
+            return;
+        }
+
+        // colors from the lowest value to the 99.5th percentile, so a few hot pixels do not darken it
+        Histogram hist = Histogram.compute(preview, 1024);
+        final int min = hist.getMinValue();
+        final int max = (int) Math.max(min + 1, hist.percentile(99.5));
+        final int[] colors = PatternUtil.getPackedColors();
+        ColorLut lut = ColorLut.compile(min, max, colors, new ColorLut.Transfer() {
+            public int colorIndex(int value) {
+                return (int) (((long) value - min) * (colors.length - 1) / (max - min));
+            }
+        });
+        BufferedImage image = PatternUtil.calcBufferedImage(preview, lut);
+
+        double scale = Math.min((double) width / image.getWidth(), (double) height / image.getHeight());
+        BufferedImage fitted = new BufferedImage(Math.max(1, (int) (image.getWidth() * scale)),
+                                                 Math.max(1, (int) (image.getHeight() * scale)), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = fitted.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(image, 0, 0, fitted.getWidth(), fitted.getHeight(), null);
+        g.dispose();
+
+        // a bare label, without the listeners of a PatternDisplay, so no command reaches the preview
+        previewLabel = new JLabel(new ImageIcon(fitted));
+        previewLabel.setHorizontalAlignment(SwingConstants.CENTER);
+        previewLabel.setBounds(0, 0, width, height);
+        panel.removeAll();
+        panel.add(previewLabel);
+        panel.repaint();
+    }
+
+    // take the preview down and show the current pattern again
+    private static void hidePreview() {
+        if(previewLabel == null) {
+            return;
+        }
+        previewLabel = null;
+
+        if(currentDisplay != null) {
+            currentDisplay.reattach();
+        }
+        else {
+            UIMain.getUIPattern().removeAll();
+            UIMain.getUIPattern().repaint();
+        }
+    }
+
+    /**
+     * Swap in the pattern loaded by loader, or report a failed load (pattern null)
+     */
+    static synchronized void loadFinished(PatternLoader loader, Pattern pattern) {
+        if(loader != currentLoader) {
+            return;
+        }
+
+        currentLoader = null;
+        if(pattern == null) {
+            hidePreview();
+            String error = loader.getError();
+            UIMain.setMessage("could not read " + loader.getFileName() + (error == null ? "" : ": " + error));
+            return;
+        }
+
+        previewLabel = null;  // the new display replaces it
         reset();
-        currentPattern = PatternReader.readPattern(args);
-        createPatternImage(currentPattern, null);
+        createPatternImage(pattern, null);
     }
 
     /**
      * Create an a square rainbow image
      */
     public static synchronized void createPatternImage(int width) {
+        cancelLoading();
         if(width < 0) {
             width = 600;
         }
 
-        int[][] intensityData = new int[width][width];
-        for(int i=0; i<width; i++) {
+        PixelBuffer intensityData = new PixelBuffer(width, width);
+        int[] pixels = intensityData.getArray();
+        for(int i=0, p=0; i<width; i++) {
             for(int j=0; j<width; j++) {
-                intensityData[i][j] = i + j;
+                pixels[p++] = i + j;
             }
         }
 
@@ -180,6 +302,9 @@ public final class PatternProcessor {
                 createPatternImage(filename);
             }
         }
+        else if(command.startsWith("cancel")) {
+            cancelLoading();
+        }
         else if(command.startsWith("ac")) {   // to display actual image size
             try {
                 UIMain.resizeToHeight(currentPattern.getHeight());
@@ -29,96 +29,126 @@
 package us.fibernet.fiberj;
 
 import java.io.File;
-import java.io.InputStream;
-import java.io.DataInputStream;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.BufferedReader;
-
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
-import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
 import java.awt.image.Raster;
-import java.awt.image.RenderedImage;
 
 import javax.imageio.ImageIO;
-
-import com.sun.media.jai.codec.SeekableStream;
-import com.sun.media.jai.codec.FileSeekableStream;
-import com.sun.media.jai.codec.TIFFDecodeParam;
-import com.sun.media.jai.codec.ImageDecoder;
-import com.sun.media.jai.codec.ImageCodec;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
 /**
  * A utility class for read diffraction pattern image files
  *
+ * The format of a file is detected from its first bytes by the registered PatternFormats,
+ * falling back to its extension. Raw data files, which carry no format information, are
+ * read with attributes given along with the file name.
  */
-@SuppressWarnings("restriction")
 public final class PatternReader {
 
-    private static int[][] image;
+    private static final List<PatternFormat> formats = new CopyOnWriteArrayList<PatternFormat>();
+
+    static {
+        register(new ImageFormat());
+        register(new PlrFormat());
+        register(new SmvFormat());
+        register(new TifFormat());
+    }
 
     private PatternReader() {
     }
 
     /**
-     * Parse the pattern file extension and call accordingly a read method
-     * Read pattern files that come with attributes not stored in itself
+     * Register a format. Formats registered later are tried first.
      */
-    public static Pattern readPattern(String[] args) {
+    public static void register(PatternFormat format) {
+        formats.add(0, format);
+    }
 
-        if(args == null || args.length < 1) {
-            return null;
-        }
+    public static List<PatternFormat> getFormats() {
+        return Collections.unmodifiableList(formats);
+    }
 
-        String fname = args[0];
-        int[][] data = null;
-        Pattern pattern = null;
+    /**
+     * Return the format of a file, detected from its first bytes or else its extension,
+     * or null if no registered format recognizes it
+     */
+    public static PatternFormat findFormat(String fname) {
 
-        if(args.length == 1) {
-            if(fname.toLowerCase().endsWith("tif")) {
-                data = readTif(fname);
-            }
-            else if(fname.toLowerCase().endsWith("plr")) {
-                data = readPlr(fname);
+        byte[] head = new byte[PatternFormat.MAGIC_LENGTH];
+        int n = 0;
+
+        try {
+            InputStream in = new FileInputStream(fname);
+            try {
+                int k;
+                while(n < head.length && (k = in.read(head, n, head.length - n)) > 0) {
+                    n += k;
+                }
             }
-            else if(fname.toLowerCase().endsWith("smv")) {
-                return PatternSmv.readSmvPattern(fname);
+            finally {
+                in.close();
             }
-            else {
-                data = readImage(fname);
+        }
+        catch(IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+
+        for(PatternFormat format : formats) {
+            if(format.matches(head, n)) {
+                return format;
             }
         }
-        else {
-            if(fname.toLowerCase().endsWith("dat")) {
-                int w = 0, h = 0;
-                try {
-                    w = Integer.parseInt(args[1]);
-                    h = Integer.parseInt(args[2]);
-                    data = readDat(fname, w, h);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    System.out.println("dat image width and height must be specified");
-                }
+
+        for(PatternFormat format : formats) {
+            if(format.matchesName(fname)) {
+                return format;
             }
         }
 
+        return null;
+    }
+
+    /**
+     * Return the format, size and frame count of a file without decoding its image data,
+     * or null if the file is not recognized. Cheap for formats with HEADER_ONLY capability,
+     * e.g., to list the patterns in a directory.
+     */
+    public static PatternInfo probe(String fname) {
 
-        if(data != null) {
-            pattern = new Pattern(data, new File(fname).getName(), false);
+        PatternFormat format = findFormat(fname);
+        if(format == null) {
+            return null;
         }
 
-        return pattern;
+        try {
+            return format.probe(fname);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return null;
     }
 
     /**
-     * Parse the pattern file extension and call accordingly a read method
+     * Detect the pattern file format and call accordingly a read method
      * Read pattern files that come with attributes not stored in itself
      */
-    public static int[][] readPatternData(String[] args) {
+    public static Pattern readPattern(String[] args) {
 
         if(args == null || args.length < 1) {
             return null;
@@ -126,130 +156,409 @@ public final class PatternReader {
 
         String fname = args[0];
 
-        if(args.length == 1) {
-            if(fname.toLowerCase().endsWith("tif")) {
-                return readTif(fname);
+        if(args.length > 1) {
+            PixelBuffer pixels = isRaw(fname) ? readDat(args) : null;
+            return pixels == null ? null : new Pattern(pixels, new File(fname).getName(), false);
+        }
+
+        return readPattern(findFormat(fname), fname);
+    }
+
+    /**
+     * Read a pattern file whose format has already been detected, see findFormat()
+     */
+    public static Pattern readPattern(PatternFormat format, String fname) {
+
+        if(format == null) {
+            System.out.println(fname + ": unknown pattern file format");
+            return null;
+        }
+
+        try {
+            return format.read(fname);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    /**
+     * Detect the pattern file format and call accordingly a read method
+     * Read pattern files that come with attributes not stored in itself
+     */
+    public static int[][] readPatternData(String[] args) {
+        Pattern pattern = readPattern(args);
+        return pattern == null ? null : pattern.getPixels().toArray();
+    }
+
+    /**
+     * Open a multi-frame pattern file as a series whose frames are decoded on request.
+     * Return null if the file is not a multi-frame format or can not be opened.
+     */
+    public static PatternSeries readPatternSeries(String fname) {
+
+        PatternFormat format = fname == null ? null : findFormat(fname);
+        if(format == null || !format.getCapabilities().contains(PatternFormat.Capability.MULTI_FRAME)) {
+            return null;
+        }
+
+        try {
+            return new PatternSeries(fname);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    private static boolean isRaw(String fname) {
+        String name = fname.toLowerCase();
+        return name.endsWith("dat") || name.endsWith("raw");
+    }
+
+    private static boolean startsWith(byte[] head, int length, int... magic) {
+        if(length < magic.length) {
+            return false;
+        }
+        for(int i = 0; i < magic.length; i++) {
+            if((head[i] & 0xFF) != magic[i]) {
+                return false;
             }
-            else if(fname.toLowerCase().endsWith("plr")) {
-                return readPlr(fname);
+        }
+        return true;
+    }
+
+    private static boolean hasSuffix(String fileName, String... suffixes) {
+        String name = fileName.toLowerCase();
+        for(String suffix : suffixes) {
+            if(name.endsWith(suffix)) {
+                return true;
             }
-            else if(fname.toLowerCase().endsWith("smv")) {
-                return PatternSmv.readSmv(fname);
+        }
+        return false;
+    }
+
+    /*
+     * TIFF, single or multi-page
+     */
+    private static final class TifFormat implements PatternFormat {
+
+        public String getName() {
+            return "TIFF";
+        }
+
+        public EnumSet<Capability> getCapabilities() {
+            return EnumSet.of(Capability.HEADER_ONLY, Capability.MAPPED, Capability.MULTI_FRAME);
+        }
+
+        public boolean matches(byte[] head, int length) {
+            return startsWith(head, length, 'I', 'I', 42, 0) || startsWith(head, length, 'M', 'M', 0, 42);
+        }
+
+        public boolean matchesName(String fileName) {
+            return hasSuffix(fileName, "tif", "tiff");
+        }
+
+        public PatternInfo probe(String fileName) throws IOException {
+            TiffReader reader = new TiffReader(fileName);
+            int[] size = reader.getPageSize(0);
+            return new PatternInfo(fileName, this, size[0], size[1], reader.getPageCount());
+        }
+
+        public Pattern read(String fileName) throws IOException {
+            return new Pattern(TiffReader.readImage(fileName), new File(fileName).getName(), false);
+        }
+
+        public MappedFile open(final String fileName) throws IOException {
+            final TiffReader reader = new TiffReader(fileName);
+            int[] size = reader.getPageSize(0);
+            final PatternInfo info = new PatternInfo(fileName, this, size[0], size[1], reader.getPageCount());
+
+            return new MappedFile() {
+                public PatternInfo getInfo() {
+                    return info;
+                }
+
+                public PixelBuffer readPreview(int size) throws IOException {
+                    return reader.readPreview(0, size);
+                }
+
+                public Pattern read() throws IOException {
+                    return new Pattern(reader.read(0), new File(fileName).getName(), false);
+                }
+            };
+        }
+    }
+
+    /*
+     * SMV, a text header "{\nHEADER_BYTES=..." followed by binary data
+     */
+    private static final class SmvFormat implements PatternFormat {
+
+        private static final byte[] KEY = { 'H', 'E', 'A', 'D', 'E', 'R', '_', 'B', 'Y', 'T', 'E', 'S' };
+
+        public String getName() {
+            return "SMV";
+        }
+
+        public EnumSet<Capability> getCapabilities() {
+            return EnumSet.of(Capability.HEADER_ONLY, Capability.MAPPED);
+        }
+
+        public boolean matches(byte[] head, int length) {
+            if(length < 1 || head[0] != '{') {
+                return false;
             }
-            else {
-                return readImage(fname);
+            // HEADER_BYTES is the first key, after "{" and white space
+            int i = 1;
+            while(i < length && (head[i] == '\n' || head[i] == '\r' || head[i] == ' ')) {
+                i++;
             }
-        }
-        else {
-            if(fname.toLowerCase().endsWith("dat")) {
-                int w = 0, h = 0;
-                try {
-                    w = Integer.parseInt(args[1]);
-                    h = Integer.parseInt(args[2]);
-                    return readDat(fname, w, h);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    System.out.println("dat image width and height must be specified");
+            if(i + KEY.length > length) {
+                return false;
+            }
+            for(int k = 0; k < KEY.length; k++) {
+                if(head[i + k] != KEY[k]) {
+                    return false;
                 }
             }
+            return true;
         }
 
-        return null;
+        public boolean matchesName(String fileName) {
+            return hasSuffix(fileName, "smv", "img");
+        }
+
+        public PatternInfo probe(String fileName) throws IOException {
+            SmvHeader header = SmvHeader.read(fileName);
+            if(header == null || !header.hasImageInfo()) {
+                throw new IOException("could not read SMV header of " + fileName);
+            }
+            return new PatternInfo(fileName, this, header.getWidth(), header.getHeight(), 1);
+        }
+
+        public Pattern read(String fileName) throws IOException {
+            Pattern pattern = PatternSmv.readSmvPattern(fileName);
+            if(pattern == null) {
+                throw new IOException("could not read SMV file " + fileName);
+            }
+            return pattern;
+        }
+
+        public MappedFile open(final String fileName) throws IOException {
+            final SmvHeader header;
+            final PatternSmv.MappedFrame frame;
+
+            // the mapping stays valid after the file is closed
+            RandomAccessFile raf = new RandomAccessFile(fileName, "r");
+            try {
+                header = SmvHeader.read(raf.getChannel());
+                frame = PatternSmv.mapSmvData(raf.getChannel(), header);
+            }
+            finally {
+                raf.close();
+            }
+            if(frame == null) {
+                throw new IOException("could not read SMV header of " + fileName);
+            }
+            final PatternInfo info = new PatternInfo(fileName, this, header.getWidth(), header.getHeight(), 1);
+
+            return new MappedFile() {
+                public PatternInfo getInfo() {
+                    return info;
+                }
+
+                public PixelBuffer readPreview(int size) {
+                    return frame.readPreview(size);
+                }
+
+                public Pattern read() {
+                    return PatternSmv.createPattern(fileName, header, frame);
+                }
+            };
+        }
     }
 
     /*
-     * Read a raw data image and extract image data into a 2D array
+     * PLR, a text polar format whose title line starts with "IFV"
      */
-    private static int[][] readDat(String fname, int width, int height) {
+    private static final class PlrFormat implements PatternFormat {
 
-        EndianCorrectInputStream input = null;
-        image = null;
+        public String getName() {
+            return "PLR";
+        }
 
-        try {
+        public EnumSet<Capability> getCapabilities() {
+            return EnumSet.of(Capability.HEADER_ONLY);
+        }
+
+        public boolean matches(byte[] head, int length) {
+            int i = 0;
+            while(i < length && head[i] == ' ') {
+                i++;
+            }
+            return i + 3 < length && head[i] == 'I' && head[i + 1] == 'F' && head[i + 2] == 'V' &&
+                   (head[i + 3] == ',' || head[i + 3] == ' ');
+        }
 
-            image = new int[height][width];
-            input = new EndianCorrectInputStream(new FileInputStream(fname), false);
+        public boolean matchesName(String fileName) {
+            return hasSuffix(fileName, "plr");
+        }
 
-            for (int i = 0; i < height; i++) {
-                for (int j = 0; j < width; j++) {
-                    image[i][j] = (int) (input.readShortCorrect());
+        public PatternInfo probe(String fileName) throws IOException {
+            InputStream in = new FileInputStream(fileName);
+            try {
+                PatternPlr plr = new PatternPlr();
+                if(!plr.parseHeader(in)) {
+                    throw new IOException("could not read PLR header of " + fileName);
                 }
+                return new PatternInfo(fileName, this, plr.getImageSize(), plr.getImageSize(), 1);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            if(input != null) {
-                try {
-                    input.close();
-                } catch (Exception e) {
-                    e.printStackTrace();
+            finally {
+                in.close();
+            }
+        }
+
+        public Pattern read(String fileName) throws IOException {
+            InputStream in = new FileInputStream(fileName);
+            try {
+                PatternPlr plr = new PatternPlr();
+                if(!plr.parseData(in)) {
+                    throw new IOException("could not read PLR file " + fileName);
                 }
+                return new Pattern(plr.getImagePixels(), new File(fileName).getName(), false);
+            }
+            finally {
+                in.close();
             }
         }
 
-        return image;
+        public MappedFile open(String fileName) {
+            return null;
+        }
     }
 
     /*
-     * Read a TIFF image and extract image data into a 2D array
+     * PNG, JPG, GIF, BMP and whatever else ImageIO reads
      */
-    private static int[][] readTif(String fname) {
+    private static final class ImageFormat implements PatternFormat {
 
-        image = null;
+        public String getName() {
+            return "Image";
+        }
 
-        try {
-            SeekableStream s = new FileSeekableStream(fname);
-            TIFFDecodeParam param = null;
-            ImageDecoder dec = ImageCodec.createImageDecoder("tiff", s, param);
-            RenderedImage op = dec.decodeAsRenderedImage(0);
-            Raster raster = op.getData();
-            image = new int[op.getHeight()][op.getWidth()];
-            // System.out.println(op.getHeight() + " " + op.getWidth());
-
-            int[] pixelColor = new int[4];
-            for (int x = 0; x < op.getWidth(); x++) {
-                for (int y = 0; y < op.getHeight(); y++) {
-                    raster.getPixel(x, y, pixelColor);
-                    image[y][x] = pixelColor[0];
+        public EnumSet<Capability> getCapabilities() {
+            return EnumSet.of(Capability.HEADER_ONLY);
+        }
+
+        public boolean matches(byte[] head, int length) {
+            return startsWith(head, length, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A) ||
+                   startsWith(head, length, 0xFF, 0xD8, 0xFF) ||
+                   startsWith(head, length, 'G', 'I', 'F', '8') ||
+                   startsWith(head, length, 'B', 'M');
+        }
+
+        public boolean matchesName(String fileName) {
+            int dot = fileName.lastIndexOf('.');
+            return dot >= 0 && ImageIO.getImageReadersBySuffix(fileName.substring(dot + 1)).hasNext();
+        }
+
+        public PatternInfo probe(String fileName) throws IOException {
+            ImageInputStream iis = ImageIO.createImageInputStream(new File(fileName));
+            try {
+                Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+                if(!readers.hasNext()) {
+                    throw new IOException("unsupported image file " + fileName);
+                }
+                ImageReader reader = readers.next();
+                try {
+                    reader.setInput(iis, true, true);
+                    return new PatternInfo(fileName, this, reader.getWidth(0), reader.getHeight(0), 1);
+                }
+                finally {
+                    reader.dispose();
                 }
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+            finally {
+                iis.close();
+            }
+        }
+
+        public Pattern read(String fileName) throws IOException {
+            return new Pattern(readImage(fileName), new File(fileName).getName(), false);
         }
 
-        return image;
+        public MappedFile open(String fileName) {
+            return null;
+        }
     }
 
     /*
-     * Read PNG, JPG, GIF, etc into a 2D array
+     * Read a frame of a raw data image. args are
+     *
+     *   file width height [type [byte-order [header-bytes [frame]]]]
+     *
+     * type is a PixelType name (default short), byte order is big or little (default little),
+     * header-bytes is the number of bytes to skip (default 0) and frame is the 0 based index
+     * of the frame in a multi-frame file (default 0).
      */
-    private static int[][] readImage(String fname) {
+    private static PixelBuffer readDat(String[] args) {
 
-        image = null;
+        int w = 0, h = 0;
+        try {
+            w = Integer.parseInt(args[1]);
+            h = Integer.parseInt(args[2]);
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("dat image width and height must be specified");
+            return null;
+        }
 
         try {
+            PixelType type = args.length > 3 ? PixelType.getType(args[3]) : PixelType.SHORT;
+            ByteOrder order = args.length > 4 && args[4].toLowerCase().startsWith("big") ?
+                              ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+            long header = args.length > 5 ? Long.parseLong(args[5]) : 0;
+            int frame = args.length > 6 ? Integer.parseInt(args[6]) : 0;
 
-            BufferedImage img = ImageIO.read(new File(fname));
-            int height = img.getHeight();
-            int width = img.getWidth();
-            //int[] pixels = img.getRGB(0, 0, width, height, null, 0, width);
+            return new RawReader(w, h, type, order, header).read(args[0], frame);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
 
-            // TODO: extract pixel values according to our color model
-            byte[] pixels = ((DataBufferByte) img.getRaster().getDataBuffer()).getData();
+        return null;
+    }
 
-            image = new int[height][width];
-            int p = 0;
-            for(int h=0; h<height; h++) {
-                for(int w=0; w<width; w++) {
-                    image[h][w] = pixels[p++];
-                }
-            }
+    /*
+     * Read PNG, JPG, GIF, etc. A single band gray image keeps its sample values, e.g., all
+     * 16 bits of a 16-bit PNG. Other images are converted to luminance.
+     */
+    private static PixelBuffer readImage(String fname) throws IOException {
+
+        BufferedImage img = ImageIO.read(new File(fname));
+        if(img == null) {
+            throw new IOException("unsupported image file " + fname);
         }
-        catch (Exception e) {
-            e.printStackTrace();
+
+        int height = img.getHeight();
+        int width = img.getWidth();
+        PixelBuffer data = new PixelBuffer(width, height);
+        int[] pixels = data.getArray();
+        Raster raster = img.getRaster();
+
+        if(raster.getNumBands() == 1 && !(img.getColorModel() instanceof IndexColorModel)) {
+            raster.getSamples(0, 0, width, height, 0, pixels);
+        }
+        else {
+            img.getRGB(0, 0, width, height, pixels, 0, width);
+            for(int p = 0; p < pixels.length; p++) {
+                int rgb = pixels[p];
+                pixels[p] = (((rgb >> 16) & 0xFF) * 299 + ((rgb >> 8) & 0xFF) * 587 + (rgb & 0xFF) * 114 + 500) / 1000;
+            }
         }
 
-        return image;
+        return data;
     }
 
     /*
@@ -322,11 +631,7 @@ public final class PatternReader {
     public static int[][] readPlr(String fname) {
 
         try {
-            BufferedReader br = new BufferedReader(new FileReader(fname));
-            PatternPlr dp = new PatternPlr();
-            dp.parseData(br);
-            br.close();
-            return dp.getImageData();
+            return new PlrFormat().read(fname).getPixels().toArray();
         }
         catch(Exception e) {
             e.printStackTrace();
@@ -350,162 +655,3 @@ public final class PatternReader {
     }
 
 } // class PatternReader
-
-
-
-/**
- * Input stream provided with NiftiDataset class. Better to use tools.EndianNeutralInputStream,
- * because that gives an endian-correct result from the standard <code>DataInput</code> methods,
- * and will also read unsigned types.
- *
- * @author Philip Cook (imported this code)
- * @version $Id$
- */
-
-class EndianCorrectInputStream extends DataInputStream {
-
-    private boolean bigendian = true;
-
-    public EndianCorrectInputStream(String filename, boolean be) throws FileNotFoundException {
-        super(new FileInputStream(filename));
-        bigendian = be;
-    }
-
-    public EndianCorrectInputStream(InputStream is, boolean be) {
-        super(is);
-        bigendian = be;
-    }
-
-    public short readShortCorrect() throws IOException {
-        short val;
-
-        val = readShort();
-        if(bigendian) {
-            return (val);
-        } else {
-            int byte0 = (int) val & 0xff;
-            int byte1 = ((int) val >> 8) & 0xff;
-            // swap the byte order
-            return (short) ((byte0 << 8) | (byte1));
-        }
-    }
-
-    public short flipShort(short val) {
-
-        int byte0 = (int) val & 0xff;
-        int byte1 = ((int) val >> 8) & 0xff;
-        // swap the byte order
-        return (short) ((byte0 << 8) | (byte1));
-    }
-
-    public int readIntCorrect() throws IOException {
-        int val;
-
-        val = readInt();
-        if(bigendian) {
-            return (val);
-        }
-
-        else {
-            int byte0 = val & 0xff;
-            int byte1 = (val >> 8) & 0xff;
-            int byte2 = (val >> 16) & 0xff;
-            int byte3 = (val >> 24) & 0xff;
-            // swap the byte order
-            return (byte0 << 24) | (byte1 << 16) | (byte2 << 8) | byte3;
-        }
-    }
-
-    // flipInt will flip the byte order of an int
-    public int flipInt(int val) {
-
-        int byte0 = val & 0xff;
-        int byte1 = (val >> 8) & 0xff;
-        int byte2 = (val >> 16) & 0xff;
-        int byte3 = (val >> 24) & 0xff;
-        // swap the byte order
-        return (byte0 << 24) | (byte1 << 16) | (byte2 << 8) | byte3;
-    }
-
-    public long readLongCorrect() throws IOException {
-        long val;
-
-        val = readLong();
-        if(bigendian) {
-            return (val);
-        }
-
-        else {
-            return (flipLong(val));
-        }
-    }
-
-    // flipLong will flip the byte order of a long
-    public long flipLong(long val) {
-
-        long byte0 = val & 0xff;
-        long byte1 = (val >> 8) & 0xff;
-        long byte2 = (val >> 16) & 0xff;
-        long byte3 = (val >> 24) & 0xff;
-        long byte4 = (val >> 32) & 0xff;
-        long byte5 = (val >> 40) & 0xff;
-        long byte6 = (val >> 48) & 0xff;
-        long byte7 = (val >> 56) & 0xff;
-        // swap the byte order
-        return (long) ((byte0 << 56) | (byte1 << 48) | (byte2 << 40)
-                | (byte3 << 32) | (byte4 << 24) | (byte5 << 16) | (byte6 << 8) | byte7);
-    }
-
-    public float readFloatCorrect() throws IOException {
-        float val;
-
-        if(bigendian) {
-            val = readFloat();
-        }
-
-        else {
-            int x = readUnsignedByte();
-            x |= ((int) readUnsignedByte()) << 8;
-            x |= ((int) readUnsignedByte()) << 16;
-            x |= ((int) readUnsignedByte()) << 24;
-            val = (float) Float.intBitsToFloat(x);
-        }
-        return val;
-    }
-
-    // flipFloat will flip the byte order of a float
-    public float flipFloat(float val) throws IOException {
-
-        int x = Float.floatToIntBits(val);
-        int y = flipInt(x);
-        return Float.intBitsToFloat(y);
-    }
-
-    public double readDoubleCorrect() throws IOException {
-        double val;
-        if(bigendian) {
-            val = readDouble();
-        } else {
-            long x = readUnsignedByte();
-            x |= ((long) readUnsignedByte()) << 8;
-            x |= ((long) readUnsignedByte()) << 16;
-            x |= ((long) readUnsignedByte()) << 24;
-            x |= ((long) readUnsignedByte()) << 32;
-            x |= ((long) readUnsignedByte()) << 40;
-            x |= ((long) readUnsignedByte()) << 48;
-            x |= ((long) readUnsignedByte()) << 56;
-            val = Double.longBitsToDouble(x);
-        }
-        return val;
-    }
-
-    // flipDouble will flip the byte order of a double
-    public double flipDouble(double val) {
-
-        long x = Double.doubleToLongBits(val);
-        long y = flipLong(x);
-        return Double.longBitsToDouble(y);
-    }
-
-}
-
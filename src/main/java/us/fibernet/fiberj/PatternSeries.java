@@ -0,0 +1,96 @@
+/*
+ * Copyright Wen Bian. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list
+ *   of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer listed in this license in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * - Neither the name of the copyright holders nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package us.fibernet.fiberj;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * An indexed series of patterns stored as the frames of one file, e.g., a time-resolved
+ * multi-page TIFF stack.
+ *
+ * Frames are listed when the series is opened and decoded one at a time on request, so a
+ * series of hundreds of frames can be stepped through or processed without holding them
+ * all in memory. The most recently requested Pattern is kept for repeated access.
+ */
+public final class PatternSeries {
+
+    private final String fileName;
+    private final String name;
+    private final TiffReader reader;
+
+    private int currentIndex = -1;
+    private Pattern current;
+
+    /**
+     * open a multi-page TIFF file as a series
+     */
+    public PatternSeries(String fileName) throws IOException {
+        this.fileName = fileName;
+        this.name = new File(fileName).getName();
+        this.reader = new TiffReader(fileName);
+    }
+
+    public String getFileName()      { return fileName;                 }
+    public int size()                { return reader.getPageCount();    }
+
+    /**
+     * return {width, height} of frame index without decoding it
+     */
+    public int[] getFrameSize(int index) throws IOException {
+        return reader.getPageSize(index);
+    }
+
+    /**
+     * decode the intensity data of frame index, not kept by the series
+     */
+    public PixelBuffer getPixels(int index) throws IOException {
+        return reader.read(index);
+    }
+
+    /**
+     * return frame index as a Pattern, decoding it unless it is the current one
+     */
+    public synchronized Pattern getPattern(int index) throws IOException {
+        if(index != currentIndex) {
+            PixelBuffer pixels = reader.read(index);
+            current = new Pattern(pixels, getFrameName(index), false);
+            currentIndex = index;
+        }
+        return current;
+    }
+
+    /**
+     * return the name of frame index, "file.tif [3/100]" for the third of 100 frames
+     */
+    public String getFrameName(int index) {
+        return size() == 1 ? name : name + " [" + (index + 1) + "/" + size() + "]";
+    }
+
+} // class PatternSeries
@@ -48,7 +48,10 @@ import javax.swing.JLabel;
  */
 public final class PatternUtil {
 
+    private static final int MIN_BAND_ROWS = 64;  // fewest image rows worth a thread
+
     private static ColorTable colors;
+    private static int[] colorLut;  // colors as packed RGB, see calcBufferedImage()
     
     private PatternUtil() { }
 
@@ -58,6 +61,7 @@ public final class PatternUtil {
         } catch (IOException e) {
             colors = new ColorTable(256);
         }
+        colorLut = colors.getPackedRGB();
     }
 
     public static void useColorTable(String colorTable) {
@@ -66,6 +70,7 @@ public final class PatternUtil {
         } catch (IOException e) {
             colors = new ColorTable(256);
         }
+        colorLut = colors.getPackedRGB();
     }
 
     public static ColorTable getColorTable(String name) throws IOException {
@@ -81,65 +86,38 @@ public final class PatternUtil {
         }
     }
 
-    /**
-     * Given a int[][], return a smaller int[][] by skipping some elements in
-     * the original int[][]
-     */
-    static int[][] shrinkArray(int[][] original) {
-        int optimalSize = 1024;// the pixel number to achieve good image
-        if(original.length < optimalSize || original[0].length < optimalSize) {
-            return original;
-        }
-        
-        int shrinkFactor = Math.max(original.length, original[0].length) / optimalSize;
-        int[][] output = new int[original.length / shrinkFactor][original[0].length / shrinkFactor];
-        for(int r = 0; r * shrinkFactor < original.length; r++) {
-            for(int c = 0; c * shrinkFactor < original.length; c++) {
-                output[r][c] = original[r * shrinkFactor][c * shrinkFactor];
-            }
-        }
-        return output;
-    }
-
-
     /**
      * Compute color index from a data array, i.e., scale data values to range of [0, numColors - 1]
      */
-    static int[][] computerColorIndex(int[][] input, int numColors) {
+    static PixelBuffer computerColorIndex(PixelBuffer input, int numColors) {
 
-        if(input == null || input.length < 1) {
+        if(input == null) {
             return null;
         }
 
-        int[][] output = new int[input.length][input[0].length];
-
-        int max = Integer.MIN_VALUE;
-        int min = Integer.MAX_VALUE;
+        int H = input.getHeight();
+        int W = input.getWidth();
+        int[] src = input.getArray();
+        PixelBuffer output = new PixelBuffer(W, H);
+        int[] dst = output.getArray();
 
         // find max and min values of input array
-        for(int i = 0; i < output.length; i++) {
-            for(int j = 0; j < output[0].length; j++) {
-                if(input[i][j] > max) {
-                    max = input[i][j];
-                }
-                else if(input[i][j] < min) {
-                    min = input[i][j];
-                }
-            }
-        }
+        int[] minMax = input.getMinMax();
+        int min = minMax[0];
+        int max = minMax[1];
 
         if(min < 0) { min = 0; } // TODO: warning
         if(max < 0) { max = 0; } // TODO: warning
 
         double factor = ((double) (max - min)) / numColors  +  1;
 
-        for(int i = 0; i < output.length; i++) {
-            for(int j = 0; j < output[0].length; j++) {
-                if(input[i][j] < min) {
-                    output[i][j] = 0;
+        for(int h = 0, p = 0; h < H; h++) {
+            for(int w = 0, k = input.index(0, h); w < W; w++, k++, p++) {
+                if(src[k] < min) {
+                    dst[p] = 0;
                 }
                 else {
-                    output[i][j] = (int) ((input[i][j] - min) / factor);
+                    dst[p] = (int) ((src[k] - min) / factor);
                 }
             }
         }
@@ -287,37 +265,34 @@ public final class PatternUtil {
     }
 
     /**
-     * Given a 2D array, calculate a BufferedImage with default color table
+     * @return  the current color table as packed RGB
      */
-    static BufferedImage calcBufferedImage(int[][] input) throws IOException {
-
-        int unit = 1;// for higher resolution
-        int height = input.length * unit;
-        int width = input[0].length * unit;
-
-        byte[] red   = colors.getRed();
-        byte[] green = colors.getGreen();
-        byte[] blue  = colors.getBlue();
+    static int[] getPackedColors() {
+        return colorLut;
+    }
 
-        BufferedImage im = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-        WritableRaster raster = im.getRaster();
+    /**
+     * Given a buffer of color indexes, calculate a BufferedImage with default color table
+     */
+    static BufferedImage calcBufferedImage(PixelBuffer input) throws IOException {
+        return calcBufferedImage(input, new ColorLut(colorLut, 0, 0));
+    }
 
-        int[] r = new int[unit * unit];
-        int[] g = new int[unit * unit];
-        int[] b = new int[unit * unit];
+    /**
+     * Given a buffer of intensities, calculate a BufferedImage by looking up each one in
+     * a ColorLut and writing its color straight into the image's DataBufferInt, in parallel
+     * bands of rows
+     */
+    static BufferedImage calcBufferedImage(final PixelBuffer input, final ColorLut lut) {
 
-        for(int h = 0; h < height; h += unit) {
-            for(int w = 0; w < width; w += unit) {
+        BufferedImage im = new BufferedImage(input.getWidth(), input.getHeight(), BufferedImage.TYPE_INT_RGB);
+        final int[] dst = ((DataBufferInt) im.getRaster().getDataBuffer()).getData();
 
-                int color = input[h/unit][w/unit];
-                Arrays.fill(r, red[color]);
-                Arrays.fill(g, green[color]);
-                Arrays.fill(b, blue[color]);
-                raster.setSamples(w, h, unit, unit, 0, r);
-                raster.setSamples(w, h, unit, unit, 1, g);
-                raster.setSamples(w, h, unit, unit, 2, b);
+        ParallelUtil.forEachBand(input.getHeight(), MIN_BAND_ROWS, new ParallelUtil.BandTask() {
+            public void run(int from, int to) {
+                lut.apply(input, from, to, dst);
             }
-        }
+        });
 
         return im;
     }
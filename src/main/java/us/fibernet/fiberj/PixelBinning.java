@@ -0,0 +1,146 @@
+/*
+ * Copyright Wen Bian. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list
+ *   of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer listed in this license in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * - Neither the name of the copyright holders nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package us.fibernet.fiberj;
+
+import java.util.Arrays;
+
+/**
+ * A utility class for N x N binning of pattern data, e.g., to shrink a pattern to fit the
+ * screen.
+ *
+ * Each output pixel is the sum or the mean of the unmasked pixels of an N x N block; blocks
+ * on the right and bottom edges may be partial. Sums are accumulated in longs so 32-bit data
+ * can not overflow, and results outside the int range are clamped. Output rows are binned
+ * in parallel bands.
+ */
+public final class PixelBinning {
+
+    public enum Mode { SUM, MEAN }
+
+    private static final int MIN_BAND_ROWS = 16;  // fewest output rows worth a thread
+
+    private PixelBinning() { }
+
+    /**
+     * @return  src binned by n x n blocks, all pixels counted
+     */
+    public static PixelBuffer bin(PixelBuffer src, int n, Mode mode) {
+        return bin(src, null, n, mode);
+    }
+
+    /**
+     * @param mask  null, or the same size as src: pixels with a non-zero mask are skipped.
+     *              A block with all pixels masked bins to 0, see binMask()
+     * @return  src binned by n x n blocks, ceil(width / n) x ceil(height / n) in size
+     */
+    public static PixelBuffer bin(final PixelBuffer src, final byte[][] mask, final int n, final Mode mode) {
+
+        if(n < 1) {
+            throw new IllegalArgumentException("invalid bin size " + n);
+        }
+        final int width = src.getWidth();
+        final int height = src.getHeight();
+        if(mask != null && (mask.length != height || (height > 0 && mask[0].length != width))) {
+            throw new IllegalArgumentException("mask size does not match data");
+        }
+
+        final int outWidth = (width + n - 1) / n;
+        final int outHeight = (height + n - 1) / n;
+        final PixelBuffer out = new PixelBuffer(outWidth, outHeight);
+        final int[] pixels = src.getArray();
+        final int[] dst = out.getArray();
+
+        ParallelUtil.forEachBand(outHeight, MIN_BAND_ROWS, new ParallelUtil.BandTask() {
+            public void run(int from, int to) {
+                long[] sum = new long[outWidth];
+                int[] count = new int[outWidth];
+                for(int oy = from; oy < to; oy++) {
+                    Arrays.fill(sum, 0);
+                    Arrays.fill(count, 0);
+                    for(int y = oy * n, yEnd = Math.min(height, y + n); y < yEnd; y++) {
+                        int row = src.index(0, y);
+                        byte[] m = mask == null ? null : mask[y];
+                        for(int ox = 0; ox < outWidth; ox++) {
+                            long s = 0;
+                            int c = 0;
+                            for(int x = ox * n, xEnd = Math.min(width, x + n); x < xEnd; x++) {
+                                if(m == null || m[x] == 0) {
+                                    s += pixels[row + x];
+                                    c++;
+                                }
+                            }
+                            sum[ox] += s;
+                            count[ox] += c;
+                        }
+                    }
+                    for(int ox = 0, p = oy * outWidth; ox < outWidth; ox++) {
+                        long v;
+                        if(mode == Mode.SUM) {
+                            v = sum[ox];
+                        }
+                        else {
+                            v = count[ox] == 0 ? 0 : Math.round((double) sum[ox] / count[ox]);
+                        }
+                        dst[p++] = (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, v));
+                    }
+                }
+            }
+        });
+
+        return out;
+    }
+
+    /**
+     * @return  mask binned like the data: a block is masked only if all its pixels are,
+     *          null if mask is null
+     */
+    public static byte[][] binMask(byte[][] mask, int n) {
+        if(mask == null) {
+            return null;
+        }
+        int height = mask.length;
+        int width = height == 0 ? 0 : mask[0].length;
+        byte[][] out = new byte[(height + n - 1) / n][(width + n - 1) / n];
+        for(int oy = 0; oy < out.length; oy++) {
+            for(int ox = 0; ox < out[oy].length; ox++) {
+                byte masked = 1;
+                for(int y = oy * n; y < Math.min(height, oy * n + n) && masked != 0; y++) {
+                    for(int x = ox * n; x < Math.min(width, ox * n + n); x++) {
+                        if(mask[y][x] == 0) {
+                            masked = 0;
+                            break;
+                        }
+                    }
+                }
+                out[oy][ox] = masked;
+            }
+        }
+        return out;
+    }
+
+} // class PixelBinning
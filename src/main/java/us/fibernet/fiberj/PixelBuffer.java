@@ -0,0 +1,217 @@
+/*
+ * Copyright Wen Bian. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list
+ *   of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer listed in this license in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * - Neither the name of the copyright holders nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package us.fibernet.fiberj;
+
+import java.nio.IntBuffer;
+
+/**
+ * A contiguous store of pixel intensities.
+ *
+ * Pixels live in a single int[] in row-major order. A buffer may be a view into a larger
+ * array, in which case offset and stride locate its first pixel and the distance between
+ * two vertically adjacent pixels. Views share storage with the buffer they are taken from.
+ */
+public final class PixelBuffer {
+
+    private final int[] pixels;  // backing array, possibly shared with other views
+    private final int offset;    // index of pixel (0, 0) in pixels
+    private final int width;     // number of pixels in a row
+    private final int height;    // number of rows
+    private final int stride;    // number of array elements between two rows
+
+    /**
+     * create a zero filled buffer of the given size
+     */
+    public PixelBuffer(int width, int height) {
+        this(new int[width * height], 0, width, height, width);
+    }
+
+    /**
+     * wrap a row-major array of width * height pixels without copying it
+     */
+    public PixelBuffer(int[] pixels, int width, int height) {
+        this(pixels, 0, width, height, width);
+    }
+
+    /**
+     * wrap a region of a row-major array without copying it
+     */
+    public PixelBuffer(int[] pixels, int offset, int width, int height, int stride) {
+        if(width < 1 || height < 1 || stride < width) {
+            throw new IllegalArgumentException("invalid buffer size: " + width + " x " + height +
+                                               ", stride " + stride);
+        }
+        if(offset < 0 || offset + (long) (height - 1) * stride + width > pixels.length) {
+            throw new IllegalArgumentException("buffer region exceeds backing array");
+        }
+        this.pixels = pixels;
+        this.offset = offset;
+        this.width = width;
+        this.height = height;
+        this.stride = stride;
+    }
+
+    /**
+     * adapter for code producing int[][]: copy a 2D array into a new buffer
+     */
+    public static PixelBuffer fromArray(int[][] data) {
+        int h = data.length;
+        int w = data[0].length;
+        PixelBuffer buf = new PixelBuffer(w, h);
+        for(int y = 0; y < h; y++) {
+            System.arraycopy(data[y], 0, buf.pixels, y * w, w);
+        }
+        return buf;
+    }
+
+    /**
+     * adapter for code consuming int[][]: copy this buffer into a new 2D array
+     */
+    public int[][] toArray() {
+        int[][] data = new int[height][width];
+        for(int y = 0; y < height; y++) {
+            System.arraycopy(pixels, offset + y * stride, data[y], 0, width);
+        }
+        return data;
+    }
+
+
+    /*------------------------------- getters -------------------------------*/
+
+    public int   getWidth()   { return width;  }
+    public int   getHeight()  { return height; }
+    public int   getStride()  { return stride; }
+    public int   getOffset()  { return offset; }
+    public int[] getArray()   { return pixels; }
+
+    /** if the pixels occupy the whole backing array with no gaps between rows */
+    public boolean isContiguous() {
+        return offset == 0 && stride == width && pixels.length == width * height;
+    }
+
+    /** index into getArray() of pixel (x, y) */
+    public int index(int x, int y) {
+        return offset + y * stride + x;
+    }
+
+    public int get(int x, int y) {
+        return pixels[offset + y * stride + x];
+    }
+
+    public void set(int x, int y, int value) {
+        pixels[offset + y * stride + x] = value;
+    }
+
+    /** copy row y into dst, which must hold at least width elements */
+    public void getRow(int y, int[] dst) {
+        System.arraycopy(pixels, offset + y * stride, dst, 0, width);
+    }
+
+    /** copy width elements of src into row y */
+    public void setRow(int y, int[] src) {
+        System.arraycopy(src, 0, pixels, offset + y * stride, width);
+    }
+
+
+    /*-------------------------------- views --------------------------------*/
+
+    /**
+     * a rectangular view sharing storage with this buffer
+     */
+    public PixelBuffer subBuffer(int x, int y, int w, int h) {
+        if(x < 0 || y < 0 || x + w > width || y + h > height) {
+            throw new IllegalArgumentException("sub buffer out of bounds");
+        }
+        return new PixelBuffer(pixels, index(x, y), w, h, stride);
+    }
+
+    /**
+     * an IntBuffer view of the pixel region, for bulk NIO transfers.
+     * Position is at pixel (0, 0); rows are stride elements apart.
+     */
+    public IntBuffer asIntBuffer() {
+        int len = (height - 1) * stride + width;
+        return IntBuffer.wrap(pixels, offset, len).slice();
+    }
+
+
+    /*------------------------------ operations -----------------------------*/
+
+    /** make a deep, contiguous copy */
+    public PixelBuffer copy() {
+        PixelBuffer buf = new PixelBuffer(width, height);
+        if(isContiguous()) {
+            System.arraycopy(pixels, 0, buf.pixels, 0, pixels.length);
+        }
+        else {
+            for(int y = 0; y < height; y++) {
+                System.arraycopy(pixels, offset + y * stride, buf.pixels, y * width, width);
+            }
+        }
+        return buf;
+    }
+
+    /** return {min, max} of all pixel values */
+    public int[] getMinMax() {
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for(int y = 0; y < height; y++) {
+            for(int i = offset + y * stride, end = i + width; i < end; i++) {
+                int v = pixels[i];
+                if(v < min) { min = v; }
+                if(v > max) { max = v; }
+            }
+        }
+        return new int[] { min, max };
+    }
+
+    /** mirror pixels about the vertical center line, in place */
+    public void flipHorizontal() {
+        for(int y = 0; y < height; y++) {
+            for(int l = offset + y * stride, r = l + width - 1; l < r; l++, r--) {
+                int tmp = pixels[l];
+                pixels[l] = pixels[r];
+                pixels[r] = tmp;
+            }
+        }
+    }
+
+    /** mirror rows about the horizontal center line, in place */
+    public void flipVertical() {
+        int[] tmp = new int[width];
+        for(int t = 0, b = height - 1; t < b; t++, b--) {
+            int it = offset + t * stride;
+            int ib = offset + b * stride;
+            System.arraycopy(pixels, it, tmp, 0, width);
+            System.arraycopy(pixels, ib, pixels, it, width);
+            System.arraycopy(tmp, 0, pixels, ib, width);
+        }
+    }
+
+} // class PixelBuffer
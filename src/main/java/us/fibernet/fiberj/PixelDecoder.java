@@ -0,0 +1,179 @@
+/*
+ * Copyright Wen Bian. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list
+ *   of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer listed in this license in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * - Neither the name of the copyright holders nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package us.fibernet.fiberj;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Conversion kernels from binary pixel data to int intensity.
+ *
+ * Each kernel reads a run of pixels through a typed view (ShortBuffer, IntBuffer, ...)
+ * of a ByteBuffer with an explicit byte order, so byte swapping is done by the bulk get
+ * rather than by shifting one byte at a time. Unsigned 32-bit and floating point values
+ * that do not fit in an int are clamped; floating point values are rounded.
+ */
+public final class PixelDecoder {
+
+    private static final int CHUNK = 8192;  // pixels converted per scratch array fill
+
+    private PixelDecoder() {}
+
+    /**
+     * Convert n pixels at the position of src into dst[off, off + n) and advance the
+     * position of src past them.
+     */
+    public static void decode(ByteBuffer src, ByteOrder order, PixelType type,
+                              int[] dst, int off, int n) {
+
+        ByteBuffer in = src.slice().order(order);
+
+        // do switch outside for loop
+        switch(type) {
+            case BYTE:
+                decodeByte(in, dst, off, n, false);
+                break;
+            case UNSIGNED_BYTE:
+                decodeByte(in, dst, off, n, true);
+                break;
+            case SHORT:
+                decodeShort(in, dst, off, n, false);
+                break;
+            case UNSIGNED_SHORT:
+                decodeShort(in, dst, off, n, true);
+                break;
+            case INT:
+                in.asIntBuffer().get(dst, off, n);
+                break;
+            case UNSIGNED_INT:
+                in.asIntBuffer().get(dst, off, n);
+                for(int i = off, end = off + n; i < end; i++) {
+                    if(dst[i] < 0) {
+                        dst[i] = Integer.MAX_VALUE;  // above 2^31 - 1, clamp
+                    }
+                }
+                break;
+            case FLOAT:
+                decodeFloat(in, dst, off, n);
+                break;
+            case DOUBLE:
+                decodeDouble(in, dst, off, n);
+                break;
+            default:
+                break;
+        }
+
+        src.position(src.position() + n * type.getSize());
+    }
+
+    /**
+     * Convert the pixel at byte index pos of src, which must already have the right order
+     */
+    public static int get(ByteBuffer src, int pos, PixelType type) {
+        switch(type) {
+            case BYTE:           return src.get(pos);
+            case UNSIGNED_BYTE:  return src.get(pos) & 0xFF;
+            case SHORT:          return src.getShort(pos);
+            case UNSIGNED_SHORT: return src.getShort(pos) & 0xFFFF;
+            case INT:            return src.getInt(pos);
+            case UNSIGNED_INT:   return (int) Math.min(src.getInt(pos) & 0xFFFFFFFFL, Integer.MAX_VALUE);
+            case FLOAT:          return Math.round(src.getFloat(pos));
+            case DOUBLE:         return toInt(src.getDouble(pos));
+            default:             return 0;
+        }
+    }
+
+    private static void decodeByte(ByteBuffer in, int[] dst, int off, int n, boolean unsigned) {
+        byte[] buf = new byte[Math.min(n, CHUNK)];
+        int mask = unsigned ? 0xFF : 0xFFFFFFFF;
+        for(int done = 0; done < n; ) {
+            int len = Math.min(buf.length, n - done);
+            in.get(buf, 0, len);
+            for(int i = 0, j = off + done; i < len; i++, j++) {
+                dst[j] = buf[i] & mask;
+            }
+            done += len;
+        }
+    }
+
+    private static void decodeShort(ByteBuffer in, int[] dst, int off, int n, boolean unsigned) {
+        short[] buf = new short[Math.min(n, CHUNK)];
+        int mask = unsigned ? 0xFFFF : 0xFFFFFFFF;
+        ShortBuffer view = in.asShortBuffer();
+        for(int done = 0; done < n; ) {
+            int len = Math.min(buf.length, n - done);
+            view.get(buf, 0, len);
+            for(int i = 0, j = off + done; i < len; i++, j++) {
+                dst[j] = buf[i] & mask;
+            }
+            done += len;
+        }
+    }
+
+    private static void decodeFloat(ByteBuffer in, int[] dst, int off, int n) {
+        float[] buf = new float[Math.min(n, CHUNK)];
+        FloatBuffer view = in.asFloatBuffer();
+        for(int done = 0; done < n; ) {
+            int len = Math.min(buf.length, n - done);
+            view.get(buf, 0, len);
+            for(int i = 0, j = off + done; i < len; i++, j++) {
+                dst[j] = Math.round(buf[i]);  // saturates at int range, NaN becomes 0
+            }
+            done += len;
+        }
+    }
+
+    private static void decodeDouble(ByteBuffer in, int[] dst, int off, int n) {
+        double[] buf = new double[Math.min(n, CHUNK)];
+        DoubleBuffer view = in.asDoubleBuffer();
+        for(int done = 0; done < n; ) {
+            int len = Math.min(buf.length, n - done);
+            view.get(buf, 0, len);
+            for(int i = 0, j = off + done; i < len; i++, j++) {
+                dst[j] = toInt(buf[i]);
+            }
+            done += len;
+        }
+    }
+
+    // round a double and clamp it to int range
+    private static int toInt(double d) {
+        if(d >= Integer.MAX_VALUE) {
+            return Integer.MAX_VALUE;
+        }
+        if(d <= Integer.MIN_VALUE) {
+            return Integer.MIN_VALUE;
+        }
+        return (int) Math.round(d);  // NaN becomes 0
+    }
+
+} // class PixelDecoder
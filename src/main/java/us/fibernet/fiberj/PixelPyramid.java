@@ -0,0 +1,164 @@
+/*
+ * Copyright Wen Bian. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list
+ *   of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer listed in this license in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * - Neither the name of the copyright holders nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package us.fibernet.fiberj;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A multi-resolution (mip-map) pyramid of a PixelBuffer.
+ *
+ * Level 0 is the buffer itself and each further level halves both sides by averaging 2 x 2
+ * blocks of the level below, so every pixel contributes to a shrunk level. Levels are built
+ * on first use and kept. A pyramid does not follow changes of its base buffer; owners
+ * create a new one when the data changes.
+ */
+public final class PixelPyramid {
+
+    private static final int MIN_BAND_ROWS = 32;  // fewest output rows worth a thread
+
+    private final List<PixelBuffer> levels = new ArrayList<PixelBuffer>();
+
+    public PixelPyramid(PixelBuffer base) {
+        levels.add(base);
+    }
+
+    public PixelBuffer getBase() {
+        return levels.get(0);
+    }
+
+    /**
+     * @return  the highest level, whose longer side is 1
+     */
+    public int getMaxLevel() {
+        PixelBuffer base = getBase();
+        int size = Math.max(base.getWidth(), base.getHeight());
+        int level = 0;
+        while(size > 1) {
+            size = (size + 1) / 2;
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * @return  level number level, or the highest level if there are fewer
+     */
+    public synchronized PixelBuffer getLevel(int level) {
+        level = Math.max(0, Math.min(level, getMaxLevel()));
+        while(levels.size() <= level) {
+            levels.add(halve(levels.get(levels.size() - 1)));
+        }
+        return levels.get(level);
+    }
+
+    /**
+     * @return  the smallest level still at least as large as the base shown shrunk by
+     *          scale (base size / shown size)
+     */
+    public PixelBuffer getLevelForScale(double scale) {
+        return getLevel(levelForScale(scale));
+    }
+
+    /**
+     * @return  the largest level whose longer side is at most maxSize
+     */
+    public PixelBuffer getLevelForSize(int maxSize) {
+        PixelBuffer base = getBase();
+        int size = Math.max(base.getWidth(), base.getHeight());
+        int level = 0;
+        while(size > maxSize && size > 1) {
+            size = (size + 1) / 2;
+            level++;
+        }
+        return getLevel(level);
+    }
+
+    /**
+     * @return  the level of a pyramid to show data shrunk by scale, floor(log2(scale))
+     */
+    public static int levelForScale(double scale) {
+        int level = 0;
+        while(scale >= 2) {
+            scale /= 2;
+            level++;
+        }
+        return level;
+    }
+
+    /*
+     * average 2 x 2 blocks into one pixel. A last odd row or column averages the pixels it
+     * has, so the result is ceil(w / 2) x ceil(h / 2).
+     */
+    static PixelBuffer halve(final PixelBuffer src) {
+
+        final int w = src.getWidth();
+        final int h = src.getHeight();
+        final int nw = (w + 1) / 2;
+        final int nh = (h + 1) / 2;
+        final PixelBuffer dst = new PixelBuffer(nw, nh);
+        final int[] in = src.getArray();
+        final int[] out = dst.getArray();
+
+        ParallelUtil.forEachBand(nh, MIN_BAND_ROWS, new ParallelUtil.BandTask() {
+            public void run(int from, int to) {
+                for(int y = from; y < to; y++) {
+                    int r0 = src.index(0, 2 * y);
+                    boolean twoRows = 2 * y + 1 < h;
+                    int r1 = twoRows ? r0 + src.getStride() : r0;
+                    int p = y * nw;
+
+                    for(int x = 0, k = 0; x < nw; x++, k += 2) {
+                        long sum;
+                        int shift;
+                        if(k + 1 < w) {
+                            sum = (long) in[r0 + k] + in[r0 + k + 1];
+                            if(twoRows) {
+                                sum += (long) in[r1 + k] + in[r1 + k + 1];
+                            }
+                            shift = twoRows ? 2 : 1;
+                        }
+                        else {
+                            sum = in[r0 + k];
+                            if(twoRows) {
+                                sum += in[r1 + k];
+                            }
+                            shift = twoRows ? 1 : 0;
+                        }
+                        // rounded average, count is 1 << shift
+                        out[p++] = (int) ((sum + ((1 << shift) >> 1)) >> shift);
+                    }
+                }
+            }
+        });
+
+        return dst;
+    }
+
+} // class PixelPyramid
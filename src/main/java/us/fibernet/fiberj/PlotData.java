@@ -90,12 +90,6 @@ public class PlotData {
         pointEnd = end;
     }
     
-    // add (x,y) to plotData 
-    private static void addPoint(double x, double v) {
-        x *= curPattern.getShrinkScale();
-        plotData.add(new Point2D.Double(x, v));
-    }
-    
     // get pixel v(px, py) and add it to plotData (x, v)
     private static void addPoint(double px, double py, double x, boolean doScale) {
         double v = curPattern.getI(px, py);
@@ -213,24 +207,18 @@ public class PlotData {
         }                
     }
     
-    // get pixel data on a circle
+    // get pixel data on a circle: mean intensity against azimuth, in 1 degree bins, of the
+    // pixels within half a display pixel of the circle
     public static void extractDataCircle(Point p) {    
         setup();
         
-        double x0 = getCenterPX();
-        double y0 = getCenterPY();
-        double dx = p.x - x0;
-        double dy = p.y - y0;
-        double r  = Math.sqrt(dx*dx + dy*dy);
-        double step = 1.0; // degree
-        int np = (int)(360 / step);
-        double theta = 0;
-        for(int i=0; i<np; i++) {
-            theta += step;
-            double x = x0 + r * Math.cos(theta);
-            double y = y0 + r * Math.sin(theta);
-            addPoint(x, y, theta, false);
-        }
+        double dx = p.x - getCenterPX();
+        double dy = p.y - getCenterPY();
+        double scale = curPattern.getShrinkScale();
+        double r  = Math.sqrt(dx*dx + dy*dy) * scale;
+        
+        addProfile(curPattern.getIntegrator().integrate(curPattern.getPixels(), BinMap.Unit.AZIMUTH, 360, 0, 360,
+                                                       BinMap.Unit.RADIUS, r - scale / 2, r + scale / 2, true));
     }
 
     // get pixel data on an arc
@@ -262,38 +250,38 @@ public class PlotData {
         }
     }
         
-    // get pixel data in a sector
+    // get pixel data in a sector: mean intensity against radius, in 1 pixel bins, of the
+    // pixels in the sector
     // p is at the center of the sector arc
     public static void extractDataSector(Point p) {
         setup();
         
         double angle = PatternProcessor.getCurrentPlotter().getSectorAngle();
-        double x0 = getCenterPX();
-        double y0 = getCenterPY();
-        double dx = p.x - x0;
-        double dy = p.y - y0;
-        double r0 = Math.sqrt(dx*dx + dy*dy);
+        double dx = p.x - getCenterPX();
+        double dy = p.y - getCenterPY();
+        double r0 = Math.sqrt(dx*dx + dy*dy) * curPattern.getShrinkScale();
+        if(r0 < 1) {
+            return;
+        }
 
+        // (360 - ) transfrom our coordinate system to the standard
         double start = (360 - Math.toDegrees(Math.atan2(dy, dx))) % 360 - (angle / 2);   
         double end = start + angle;     
-        double astep = 0.5; // degree
-        double rstep = 1.0;
-        int nr = (int)(r0 / rstep);
-        int np = (int)((end - start) / astep);
-        double r = 0;
-        double theta = 0;
+        int nr = (int) Math.ceil(r0);
         
-        astep = Math.toRadians(astep);
-        for(int i=0; i<nr; i++) {
-            r += rstep;
-            double sum = 0;
-            for(int j=0; j<np; j++) {
-                theta += astep;
-                double x = x0 + r * Math.cos(theta);
-                double y = y0 + r * Math.sin(theta);
-                sum += curPattern.getI(x, y);
+        addProfile(curPattern.getIntegrator().integrate(curPattern.getPixels(), BinMap.Unit.RADIUS, nr, 0, nr,
+                                                       BinMap.Unit.AZIMUTH, start, end, true));
+    }
+    
+    // add the bins of a profile that have pixels to plotData
+    private static void addProfile(AzimuthalIntegrator.Profile profile) {
+        double[] x = profile.getPosition();
+        double[] v = profile.getIntensity();
+        double[] n = profile.getCount();
+        for(int i=0; i<profile.getSize(); i++) {
+            if(n[i] > 0) {
+                plotData.add(new Point2D.Double(x[i], v[i]));
             }
-            addPoint(r, sum/np);
         }
     }
     
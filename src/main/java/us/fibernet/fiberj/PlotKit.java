@@ -28,12 +28,13 @@
 
 package us.fibernet.fiberj;
 
-import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Point;
-import java.awt.Graphics2D;
+import java.awt.Shape;
 import java.awt.geom.Arc2D;
-import java.awt.image.BufferedImage;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
 
 import us.fibernet.fiberj.PlotDialog.PlotType;
 
@@ -55,63 +56,56 @@ public class PlotKit {
     }
 
     public void plotDraw(Point p1, Point p2) {
-        //
-        // get a copy of display image and create a g2d on it
-        //
         PlotDialog curPlotter = PatternProcessor.getCurrentPlotter();
         if(curPlotter == null) {
             return;
         }
         
         Color color = curPlotter.getPenColor();
-        BufferedImage drawImage = myDisplay.getDisplayImageCopy();
-        Graphics2D g = drawImage.createGraphics();
-        g.setColor(color);
-        g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 1.0f));
 
-        // use g to draw on the image
+        // build the shape and hand it to the display overlay, which repaints only
+        // around the previous and the new shape
+        Shape shape = null;
         PlotType type = curPlotter.getPlotType();
         switch(type) {
             case LINE:
-                plotLine(p1, p2, g);
+                shape = plotLine(p1, p2);
                 break;
             case RADIUS:
-                plotRadius(p2, g);
+                shape = plotRadius(p2);
                 break;
             case ARC:
-                plotArc(p1, p2, g);
+                shape = plotArc(p1, p2);
                 break;
             case CIRCLE:
-                plotCircle(p2, g);
+                shape = plotCircle(p2);
                 break;
             case SECTOR:
-                plotSector(p2, g);
+                shape = plotSector(p2);
                 break;              
             case RECTANGLE:
-                plotRectangle(p1, p2, g);
+                shape = plotRectangle(p1, p2);
                 break;
             default:
                 break;
         }      
 
-        // release g and update display image
-        g.dispose();
-        myDisplay.setDisplayImage(drawImage);
+        myDisplay.getOverlay().setPlotShape(shape, color);
         PlotData.setLastPlotData(type, p1, p2);
     }
 
-    private void plotLine(Point p1, Point p2, Graphics2D g) {
-        g.drawLine(p1.x,  p1.y,  p2.x,  p2.y);
+    private Shape plotLine(Point p1, Point p2) {
+        return new Line2D.Double(p1, p2);
     }
 
-    private void plotRadius(Point p, Graphics2D g) {
+    private Shape plotRadius(Point p) {
         int x = (int)(getPatternCenterX() + 0.5);
         int y = (int)(getPatternCenterY() + 0.5);
-        g.drawLine(x,  y,  p.x,  p.y);
+        return new Line2D.Double(x,  y,  p.x,  p.y);
     }
 
     // TODO: can't draw across left x-axis (180 degree line)
-    private void plotArc(Point p1, Point p2, Graphics2D g) {
+    private Shape plotArc(Point p1, Point p2) {
         // p1 determines the enclosing rectangle, and start angle
         double x0 = getPatternCenterX();
         double y0 = getPatternCenterY();
@@ -128,13 +122,10 @@ public class PlotKit {
         
         // draw clockwise
         double extent = (end - start); // % 360;       
-        Arc2D arc = new Arc2D.Double(x, y, w, w, start, extent, Arc2D.OPEN);
-        if (arc != null) {
-            g.draw(arc);
-        }
+        return new Arc2D.Double(x, y, w, w, start, extent, Arc2D.OPEN);
     }
 
-    private void plotCircle(Point p, Graphics2D g) {
+    private Shape plotCircle(Point p) {
         double x0 = getPatternCenterX();
         double y0 = getPatternCenterY();
         double dx = p.x - x0;
@@ -143,11 +134,11 @@ public class PlotKit {
         int x = (int)(x0 - r + 0.5);
         int y = (int)(y0 - r + 0.5);
         int w = (int)(2*r + 0.5);
-        g.drawOval(x, y, w, w);
+        return new Ellipse2D.Double(x, y, w, w);
     }
 
     // draw a sector centered at a Point 
-    private void plotSector(Point p, Graphics2D g) {
+    private Shape plotSector(Point p) {
         double x0 = getPatternCenterX();
         double y0 = getPatternCenterY();
         double dx = p.x - x0;
@@ -159,16 +150,12 @@ public class PlotKit {
 
         double extent = PatternProcessor.getCurrentPlotter().getSectorAngle(); 
         double start = (360 - Math.toDegrees(Math.atan2(dy, dx))) % 360 - (extent / 2);       
-        Arc2D arc = new Arc2D.Double(x, y, w, w, start, extent, Arc2D.PIE);
-
-        if (arc != null) {
-            g.draw(arc);
-        }
+        return new Arc2D.Double(x, y, w, w, start, extent, Arc2D.PIE);
     }
 
     // TODO: currently can only draw from top-left to bottom-right 
-    private void plotRectangle(Point p1, Point p2, Graphics2D g) {
-        g.drawRect(p1.x, p1.y, p2.x - p1.x,  p2.y - p1.y);
+    private Shape plotRectangle(Point p1, Point p2) {
+        return new Rectangle2D.Double(p1.x, p1.y, p2.x - p1.x,  p2.y - p1.y);
     }
 
     private double getPatternCenterX() {
@@ -0,0 +1,134 @@
+/*
+ * Copyright Wen Bian. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list
+ *   of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer listed in this license in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * - Neither the name of the copyright holders nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package us.fibernet.fiberj;
+
+/**
+ * Resampling of a pattern onto a polar (r, phi) grid: row j holds angle phi = j * phiStep
+ * and column i radius r = i * rStep, so every row is a radial profile and a band of rows a
+ * sector. phi is in degrees counter clockwise from the +x (right) direction, as the azimuth
+ * of ReciprocalTables.
+ *
+ * The radius is either the distance from the center in pixels, or, for reciprocal space, D
+ * (1/angstrom) on a ring about the beam. The mapping is built once into a ResamplePlan;
+ * remapping a frame then is one parallel pass over bands of phi rows, so a long series
+ * costs one pass per frame. A remap is immutable; owners check matches() before reuse.
+ */
+public final class PolarRemap {
+
+    private final int sourceWidth, sourceHeight;
+    private final double centerX, centerY;
+    private final ReciprocalGeometry geometry;   // null for a remap in pixels
+    private final double rStep, phiStep;
+    private final ResamplePlan plan;
+
+    private PolarRemap(int sourceWidth, int sourceHeight, double centerX, double centerY,
+                       ReciprocalGeometry geometry, double rStep, double phiStep, int nr, ResamplePlan.Mapping mapping) {
+        if(rStep <= 0 || phiStep <= 0 || phiStep > 360) {
+            throw new IllegalArgumentException("invalid polar step");
+        }
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        this.centerX = centerX;
+        this.centerY = centerY;
+        this.geometry = geometry;
+        this.rStep = rStep;
+        this.phiStep = phiStep;
+        int nphi = Math.max(1, (int) Math.round(360 / phiStep));
+        plan = ResamplePlan.build(nr, nphi, sourceWidth, sourceHeight, mapping);
+    }
+
+    /**
+     * remap about (centerX, centerY) out to the farthest corner, r in pixels
+     */
+    public static PolarRemap inPixels(int sourceWidth, int sourceHeight, final double centerX, final double centerY,
+                                      final double rStep, final double phiStep) {
+        double dx = Math.max(centerX, sourceWidth - 1 - centerX);
+        double dy = Math.max(centerY, sourceHeight - 1 - centerY);
+        int nr = (int) (Math.sqrt(dx * dx + dy * dy) / rStep) + 1;
+
+        return new PolarRemap(sourceWidth, sourceHeight, centerX, centerY, null, rStep, phiStep, nr,
+                new ResamplePlan.Mapping() {
+            public boolean map(int x, int y, double[] xy) {
+                double r = x * rStep;
+                double phi = Math.toRadians(y * phiStep);
+                xy[0] = centerX + r * Math.cos(phi);
+                xy[1] = centerY - r * Math.sin(phi);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * remap to (D, phi) of a geometry, D from 0 to maxD in steps of dStep, phi the angle
+     * of the ring about the beam
+     */
+    public static PolarRemap inReciprocal(final ReciprocalGeometry geometry, double maxD,
+                                          final double dStep, final double phiStep) {
+        int nr = (int) (maxD / dStep) + 1;
+        return new PolarRemap(geometry.getWidth(), geometry.getHeight(), Double.NaN, Double.NaN, geometry,
+                dStep, phiStep, nr, new ResamplePlan.Mapping() {
+            public boolean map(int x, int y, double[] xy) {
+                return geometry.ring2xy(x * dStep, Math.toRadians(y * phiStep), xy);
+            }
+        });
+    }
+
+    /** @return  if this is the pixel remap inPixels() would build for these arguments */
+    public boolean matches(int sourceWidth, int sourceHeight, double centerX, double centerY,
+                           double rStep, double phiStep) {
+        return geometry == null && this.sourceWidth == sourceWidth && this.sourceHeight == sourceHeight &&
+               this.centerX == centerX && this.centerY == centerY && this.rStep == rStep && this.phiStep == phiStep;
+    }
+
+    /** @return  if this is the reciprocal remap of geometry with these steps */
+    public boolean matches(ReciprocalGeometry geometry, double dStep, double phiStep) {
+        return geometry.equals(this.geometry) && this.rStep == dStep && this.phiStep == phiStep;
+    }
+
+    public double getRStep()    { return rStep;   }
+    public double getPhiStep()  { return phiStep; }
+    public int getRCount()      { return plan.getWidth();  }
+    public int getPhiCount()    { return plan.getHeight(); }
+
+    /**
+     * @return  frame remapped into a new buffer, points off the source 0
+     */
+    public PixelBuffer apply(PixelBuffer frame) {
+        return plan.apply(frame);
+    }
+
+    /**
+     * remap frame into dst, getRCount() x getPhiCount(), reused between frames
+     *
+     * @param empty  value of points off the source
+     */
+    public void apply(PixelBuffer frame, PixelBuffer dst, int empty) {
+        plan.apply(frame, dst, empty);
+    }
+
+} // class PolarRemap
@@ -0,0 +1,155 @@
+/*
+ * Copyright Wen Bian. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list
+ *   of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer listed in this license in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * - Neither the name of the copyright holders nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package us.fibernet.fiberj;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * A reader for headerless (raw, dat) image files, or files with a fixed size header.
+ *
+ * A file holds one or more frames of width x height pixels of the same type and byte
+ * order, stored back to back after headerBytes. Data is streamed through a FileChannel
+ * into a reusable ByteBuffer and converted by PixelDecoder, so reading a series of frames
+ * with one RawReader allocates nothing per frame besides the output PixelBuffer.
+ */
+public final class RawReader {
+
+    private static final int CHUNK_BYTES = 1 << 20;  // preferred size of one channel read
+
+    private final int width;
+    private final int height;
+    private final PixelType type;
+    private final ByteOrder order;
+    private final long headerBytes;
+    private final int rowBytes;
+    private ByteBuffer buffer;
+
+    /**
+     * @param width        number of pixels in a row
+     * @param height       number of rows in a frame
+     * @param type         pixel data type
+     * @param order        byte order of the pixel data
+     * @param headerBytes  number of bytes to skip at the beginning of the file
+     */
+    public RawReader(int width, int height, PixelType type, ByteOrder order, long headerBytes) {
+        if(width < 1 || height < 1 || headerBytes < 0) {
+            throw new IllegalArgumentException("invalid raw image size: " + width + " x " + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.type = type;
+        this.order = order;
+        this.headerBytes = headerBytes;
+        this.rowBytes = width * type.getSize();
+    }
+
+    public int getWidth()            { return width;                        }
+    public int getHeight()           { return height;                       }
+    public long getFrameBytes()      { return (long) rowBytes * height;     }
+
+    /**
+     * return the number of complete frames in a file
+     */
+    public int getFrameCount(String fileName) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(fileName, "r");
+        try {
+            return getFrameCount(raf.getChannel());
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    public int getFrameCount(FileChannel ch) throws IOException {
+        return (int) Math.max(0, (ch.size() - headerBytes) / getFrameBytes());
+    }
+
+    /**
+     * read frame number frame (0 based) of a file
+     */
+    public PixelBuffer read(String fileName, int frame) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(fileName, "r");
+        try {
+            PixelBuffer data = new PixelBuffer(width, height);
+            read(raf.getChannel(), frame, data);
+            return data;
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * read frame number frame of an open channel into dst, which must be width x height.
+     * The channel's position is not used or changed.
+     */
+    public void read(FileChannel ch, int frame, PixelBuffer dst) throws IOException {
+
+        if(frame < 0 || frame >= getFrameCount(ch)) {
+            throw new IOException("frame " + frame + " not in file, which has " +
+                                  getFrameCount(ch) + " frames");
+        }
+
+        int rowsPerChunk = Math.max(1, Math.min(height, CHUNK_BYTES / rowBytes));
+        if(buffer == null || buffer.capacity() < rowsPerChunk * rowBytes) {
+            buffer = ByteBuffer.allocateDirect(rowsPerChunk * rowBytes);
+        }
+
+        long pos = headerBytes + frame * getFrameBytes();
+        int[] pixels = dst.getArray();
+
+        for(int y = 0; y < height; y += rowsPerChunk) {
+            int rows = Math.min(rowsPerChunk, height - y);
+
+            buffer.clear();
+            buffer.limit(rows * rowBytes);
+            while(buffer.hasRemaining()) {
+                if(ch.read(buffer, pos + buffer.position()) < 0) {
+                    throw new IOException("unexpected end of file at frame " + frame + ", row " + y);
+                }
+            }
+            pos += buffer.position();
+            buffer.flip();
+
+            if(dst.getStride() == width) {
+                PixelDecoder.decode(buffer, order, type, pixels, dst.index(0, y), rows * width);
+            }
+            else {
+                for(int r = 0; r < rows; r++) {
+                    PixelDecoder.decode(buffer, order, type, pixels, dst.index(0, y + r), width);
+                }
+            }
+        }
+    }
+
+} // class RawReader
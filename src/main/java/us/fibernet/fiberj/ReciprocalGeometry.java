@@ -0,0 +1,299 @@
+/*
+ * Copyright Wen Bian. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list
+ *   of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer listed in this license in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * - Neither the name of the copyright holders nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package us.fibernet.fiberj;
+
+/**
+ * The diffraction geometry of a pattern: a snapshot of the parameters that map a detector
+ * pixel to reciprocal space, with the transforms both ways.
+ *
+ * Lab frame: x along the beam, y horizontal and z vertical, the fiber axis when there is no
+ * missetting. The detector is sdd from the specimen, its center on the beam, rotated by
+ * betaD about y, then by gammaD about z. The fiber axis is rotated by twist about x, then
+ * by tilt about y. For a pixel the scattering vector is q = (s - s0) / wavelen, s the unit
+ * vector to the pixel and s0 that of the beam; Z = q.f along the fiber axis f, R the rest,
+ * signed positive towards +y, and D = |q| = 1 / d. Pixel columns increase along y, rows
+ * against z. Lengths: wavelen and 1/q in angstrom, sdd and pixelSize in mm.
+ *
+ * A reciprocal space pattern (isRecip) maps linearly, pixelSize being the step in 1/angstrom.
+ *
+ * Instances are immutable; two are equal when all parameters are, which is what cached
+ * per pixel tables (see ReciprocalTables) are keyed by.
+ */
+public final class ReciprocalGeometry {
+
+    private final int width, height;
+    private final double centerX, centerY;
+    private final double sdd, wavelen, pixelSize;
+    private final double tilt, twist, betaD, gammaD;
+    private final boolean isRecip;
+    private final int hash;
+
+    private final double[] ey, ez, n;   // detector row and column directions and normal
+    private final double[] f, h, g;     // fiber axis, R direction, and f x h
+
+    public ReciprocalGeometry(Pattern p) {
+        this(p.getWidth(), p.getHeight(), p.getCenterX(), p.getCenterY(), p.getSdd(), p.getWavelen(),
+             p.getPixelSize(), p.getTilt(), p.getTwist(), p.getBetaD(), p.getGammaD(), p.isRecip());
+    }
+
+    public ReciprocalGeometry(int width, int height, double centerX, double centerY,
+                              double sdd, double wavelen, double pixelSize,
+                              double tilt, double twist, double betaD, double gammaD, boolean isRecip) {
+        this.width = width;
+        this.height = height;
+        this.centerX = centerX;
+        this.centerY = centerY;
+        this.sdd = sdd;
+        this.wavelen = wavelen;
+        this.pixelSize = pixelSize;
+        this.tilt = tilt;
+        this.twist = twist;
+        this.betaD = betaD;
+        this.gammaD = gammaD;
+        this.isRecip = isRecip;
+
+        double b = Math.toRadians(betaD), c = Math.toRadians(gammaD);
+        n  = detectorAxis(1, 0, 0, b, c);
+        ey = detectorAxis(0, 1, 0, b, c);
+        ez = detectorAxis(0, 0, 1, b, c);
+
+        double t = Math.toRadians(twist), l = Math.toRadians(tilt);
+        f = new double[] { Math.cos(t) * Math.sin(l), -Math.sin(t), Math.cos(t) * Math.cos(l) };
+        h = new double[] { -f[1] * f[0], 1 - f[1] * f[1], -f[1] * f[2] };  // y without its f part
+        double norm = Math.sqrt(dot(h, h));
+        for(int i = 0; i < 3; i++) {
+            h[i] /= norm;
+        }
+        g = new double[] { f[1] * h[2] - f[2] * h[1], f[2] * h[0] - f[0] * h[2], f[0] * h[1] - f[1] * h[0] };
+
+        int r = width;
+        r = 31 * r + height;
+        r = 31 * r + (isRecip ? 1 : 0);
+        double[] values = { centerX, centerY, sdd, wavelen, pixelSize, tilt, twist, betaD, gammaD };
+        for(double v : values) {
+            long bits = Double.doubleToLongBits(v);
+            r = 31 * r + (int) (bits ^ (bits >>> 32));
+        }
+        hash = r;
+    }
+
+    public int getWidth()        { return width;   }
+    public int getHeight()       { return height;  }
+    public boolean isRecip()     { return isRecip; }
+    public double getCenterX()   { return centerX; }
+    public double getCenterY()   { return centerY; }
+    public double getWavelen()   { return wavelen; }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o) {
+            return true;
+        }
+        if(!(o instanceof ReciprocalGeometry)) {
+            return false;
+        }
+        ReciprocalGeometry other = (ReciprocalGeometry) o;
+        return hash == other.hash && width == other.width && height == other.height && isRecip == other.isRecip &&
+               same(centerX, other.centerX) && same(centerY, other.centerY) && same(sdd, other.sdd) &&
+               same(wavelen, other.wavelen) && same(pixelSize, other.pixelSize) && same(tilt, other.tilt) &&
+               same(twist, other.twist) && same(betaD, other.betaD) && same(gammaD, other.gammaD);
+    }
+
+    /**
+     * transform pixel (x, y) to R, Z, D and the cosine of the angle at which the
+     * scattered ray hits the detector
+     *
+     * @param out  at least 4 long
+     */
+    public void xy2RZDA(double x, double y, double[] out) {
+        double dy = (x - centerX) * pixelSize;
+        double dz = (centerY - y) * pixelSize;
+
+        if(isRecip) {
+            out[0] = dy;
+            out[1] = dz;
+            out[2] = Math.sqrt(dy * dy + dz * dz);
+            out[3] = 1;
+            return;
+        }
+
+        // scattered ray to the pixel, then q = (s - s0) / wavelen
+        double px = sdd + dy * ey[0] + dz * ez[0];
+        double py =       dy * ey[1] + dz * ez[1];
+        double pz =       dy * ey[2] + dz * ez[2];
+        double len = Math.sqrt(px * px + py * py + pz * pz);
+        double sx = px / len, sy = py / len, sz = pz / len;
+        double qx = (sx - 1) / wavelen, qy = sy / wavelen, qz = sz / wavelen;
+
+        double D2 = qx * qx + qy * qy + qz * qz;
+        double Z = qx * f[0] + qy * f[1] + qz * f[2];
+        double R = Math.sqrt(Math.max(0, D2 - Z * Z));
+        if(qx * h[0] + qy * h[1] + qz * h[2] < 0) {
+            R = -R;
+        }
+        out[0] = R;
+        out[1] = Z;
+        out[2] = Math.sqrt(D2);
+        out[3] = Math.abs(sx * n[0] + sy * n[1] + sz * n[2]);
+    }
+
+    /**
+     * largest |R|, |Z| and D over the pixels of the pattern, found along its edges: the
+     * scattering angle grows away from the beam across a flat detector, so this needs no
+     * per pixel table (see ReciprocalTables), e.g., to bound rings drawn while a parameter
+     * is being changed
+     *
+     * @return  {maxR, maxZ, maxD}
+     */
+    public double[] getBounds() {
+        double[] max = new double[3];
+        double[] rzda = new double[4];
+        for(int x = 0; x < width; x++) {
+            bound(x, 0, rzda, max);
+            bound(x, height - 1, rzda, max);
+        }
+        for(int y = 0; y < height; y++) {
+            bound(0, y, rzda, max);
+            bound(width - 1, y, rzda, max);
+        }
+        return max;
+    }
+
+    private void bound(double x, double y, double[] rzda, double[] max) {
+        xy2RZDA(x, y, rzda);
+        max[0] = Math.max(max[0], Math.abs(rzda[0]));
+        max[1] = Math.max(max[1], Math.abs(rzda[1]));
+        max[2] = Math.max(max[2], rzda[2]);
+    }
+
+    /**
+     * @return  azimuth of pixel (x, y) about the center in degrees [0, 360), counter
+     *          clockwise from the +y (right) direction
+     */
+    public double azimuth(double x, double y) {
+        double a = Math.toDegrees(Math.atan2(centerY - y, x - centerX));
+        return a < 0 ? a + 360 : a;
+    }
+
+    /**
+     * transform reciprocal (R, Z) to a pixel (x, y), which may lie off the detector. The
+     * sign of R picks the side.
+     *
+     * @return  false if (R, Z) is not on the Ewald sphere or its ray misses the detector
+     */
+    public boolean RZ2xy(double R, double Z, double[] xy) {
+        if(isRecip) {
+            xy[0] = centerX + R / pixelSize;
+            xy[1] = centerY - Z / pixelSize;
+            return true;
+        }
+
+        // q = Z f + a h + b g with a^2 + b^2 = R^2 and, on the Ewald sphere, qx = -wavelen D^2 / 2
+        double D2 = R * R + Z * Z;
+        double c = -wavelen * D2 / 2 - Z * f[0];
+        double ux = h[0], uy = g[0];
+        double uu = ux * ux + uy * uy;
+        if(uu < 1e-12) {
+            return false;
+        }
+        double d2 = c * c / uu;
+        if(d2 > R * R) {
+            return false;
+        }
+        double t = Math.sqrt((R * R - d2) / uu);
+        double a0 = c * ux / uu, b0 = c * uy / uu;
+        double a1 = a0 - t * uy, b1 = b0 + t * ux;
+        double a2 = a0 + t * uy, b2 = b0 - t * ux;
+        double sign = R < 0 ? -1 : 1;
+        double a = a1, b = b1;
+        if(a2 * sign > a1 * sign) {
+            a = a2;
+            b = b2;
+        }
+
+        double[] q = new double[3];
+        for(int i = 0; i < 3; i++) {
+            q[i] = Z * f[i] + a * h[i] + b * g[i];
+        }
+        return q2xy(q, xy);
+    }
+
+    /**
+     * the pixel where a scattering vector of length D at angle psi about the beam meets the
+     * detector, i.e., points of a constant resolution ring
+     */
+    public boolean ring2xy(double D, double psi, double[] xy) {
+        if(isRecip) {
+            xy[0] = centerX + D * Math.cos(psi) / pixelSize;
+            xy[1] = centerY - D * Math.sin(psi) / pixelSize;
+            return true;
+        }
+        double qx = -wavelen * D * D / 2;
+        double rho2 = D * D - qx * qx;
+        if(rho2 < 0) {
+            return false;
+        }
+        double rho = Math.sqrt(rho2);
+        return q2xy(new double[] { qx, rho * Math.cos(psi), rho * Math.sin(psi) }, xy);
+    }
+
+    // intersect the ray along s = s0 + wavelen q with the detector
+    private boolean q2xy(double[] q, double[] xy) {
+        double sx = 1 + wavelen * q[0], sy = wavelen * q[1], sz = wavelen * q[2];
+        double sn = sx * n[0] + sy * n[1] + sz * n[2];
+        if(sn < 1e-12) {
+            return false;
+        }
+        double t = sdd * n[0] / sn;
+        double px = t * sx - sdd, py = t * sy, pz = t * sz;
+        xy[0] = centerX + (px * ey[0] + py * ey[1] + pz * ey[2]) / pixelSize;
+        xy[1] = centerY - (px * ez[0] + py * ez[1] + pz * ez[2]) / pixelSize;
+        return true;
+    }
+
+    // lab direction of detector axis (x, y, z) after rotations about y by b then about z by c
+    private static double[] detectorAxis(double x, double y, double z, double b, double c) {
+        double x1 = x * Math.cos(b) + z * Math.sin(b);
+        double z1 = -x * Math.sin(b) + z * Math.cos(b);
+        return new double[] { x1 * Math.cos(c) - y * Math.sin(c), x1 * Math.sin(c) + y * Math.cos(c), z1 };
+    }
+
+    private static double dot(double[] a, double[] b) {
+        return a[0] * b[0] + a[1] * b[1] + a[2] * b[2];
+    }
+
+    private static boolean same(double a, double b) {
+        return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+    }
+
+} // class ReciprocalGeometry
@@ -0,0 +1,116 @@
+/*
+ * Copyright Wen Bian. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list
+ *   of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer listed in this license in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * - Neither the name of the copyright holders nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package us.fibernet.fiberj;
+
+/**
+ * Per pixel reciprocal coordinates of a pattern: R, Z, D (all in 1/angstrom) and the
+ * azimuth about the center (degree), row by row as float arrays of width x height.
+ *
+ * Built once, in parallel bands of rows, for a ReciprocalGeometry; pixel readouts and
+ * transforms then look coordinates up instead of redoing the trigonometry. Tables are
+ * shared and must not be modified.
+ */
+public final class ReciprocalTables {
+
+    private static final int MIN_BAND_ROWS = 16;   // fewest rows worth a thread
+
+    private final ReciprocalGeometry geometry;
+    private final float[] tableR, tableZ, tableD, tableAzimuth;
+    private double maxR, maxZ, maxD;
+
+    private ReciprocalTables(ReciprocalGeometry geometry) {
+        this.geometry = geometry;
+        int size = geometry.getWidth() * geometry.getHeight();
+        tableR = new float[size];
+        tableZ = new float[size];
+        tableD = new float[size];
+        tableAzimuth = new float[size];
+    }
+
+    /**
+     * compute the tables of a geometry
+     */
+    public static ReciprocalTables build(final ReciprocalGeometry geometry) {
+        final ReciprocalTables t = new ReciprocalTables(geometry);
+        final int width = geometry.getWidth();
+
+        ParallelUtil.forEachBand(geometry.getHeight(), MIN_BAND_ROWS, new ParallelUtil.BandTask() {
+            public void run(int from, int to) {
+                double[] rzda = new double[4];
+                double mr = 0, mz = 0, md = 0;
+                for(int y = from; y < to; y++) {
+                    for(int x = 0, k = y * width; x < width; x++, k++) {
+                        geometry.xy2RZDA(x, y, rzda);
+                        t.tableR[k] = (float) rzda[0];
+                        t.tableZ[k] = (float) rzda[1];
+                        t.tableD[k] = (float) rzda[2];
+                        t.tableAzimuth[k] = (float) geometry.azimuth(x, y);
+                        mr = Math.max(mr, Math.abs(rzda[0]));
+                        mz = Math.max(mz, Math.abs(rzda[1]));
+                        md = Math.max(md, rzda[2]);
+                    }
+                }
+                t.mergeMax(mr, mz, md);
+            }
+        });
+
+        return t;
+    }
+
+    private synchronized void mergeMax(double r, double z, double d) {
+        maxR = Math.max(maxR, r);
+        maxZ = Math.max(maxZ, z);
+        maxD = Math.max(maxD, d);
+    }
+
+    public ReciprocalGeometry getGeometry()  { return geometry;      }
+    public int getWidth()                     { return geometry.getWidth();  }
+    public int getHeight()                    { return geometry.getHeight(); }
+    public float[] getR()                     { return tableR;        }
+    public float[] getZ()                     { return tableZ;        }
+    public float[] getD()                     { return tableD;        }
+    public float[] getAzimuth()               { return tableAzimuth;  }
+
+    /** largest |R|, |Z| and D over the pattern */
+    public synchronized double getMaxR()      { return maxR; }
+    public synchronized double getMaxZ()      { return maxZ; }
+    public synchronized double getMaxD()      { return maxD; }
+
+    /**
+     * @return  index of pixel (x, y) rounded to the nearest, -1 if it is off the pattern
+     */
+    public int index(double x, double y) {
+        int i = (int) Math.floor(x + 0.5);
+        int j = (int) Math.floor(y + 0.5);
+        if(i < 0 || j < 0 || i >= getWidth() || j >= getHeight()) {
+            return -1;
+        }
+        return j * getWidth() + i;
+    }
+
+} // class ReciprocalTables
@@ -0,0 +1,177 @@
+/*
+ * Copyright Wen Bian. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list
+ *   of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer listed in this license in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * - Neither the name of the copyright holders nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package us.fibernet.fiberj;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Renders pattern images on a background thread for interactive colormap changes.
+ *
+ * Requests made while a render is running are coalesced: only the latest one is rendered
+ * next, the ones in between are dropped. Finished images are handed to the Target on the
+ * Swing event thread, never older than one already shown. cancel() abandons the running
+ * render, between blocks of rows, and any pending request; it is called when the image is
+ * rendered synchronously or the display goes away.
+ */
+public final class RenderScheduler {
+
+    /** receives rendered images, on the event thread */
+    public interface Target {
+        void imageRendered(BufferedImage image);
+    }
+
+    private static final int BLOCK_ROWS = 256;     // rows rendered between cancel checks
+    private static final int MIN_BAND_ROWS = 64;   // fewest rows worth a thread
+
+    // one thread for all displays, renders themselves run in parallel bands
+    private static final ExecutorService RENDERER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "fiberj-render");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private final Target target;
+
+    // guarded by this
+    private PixelBuffer pendingData;
+    private ColorLut pendingLut;
+    private int pendingSeq;
+    private boolean running;
+
+    private volatile int epoch;     // incremented by cancel()
+    private int requestSeq;         // sequence number of requests, event thread only
+    private int shownSeq;           // sequence number of the image last shown, event thread only
+
+    public RenderScheduler(Target target) {
+        this.target = target;
+    }
+
+    /**
+     * Render data through lut in the background, replacing any request not started yet
+     */
+    public void request(PixelBuffer data, ColorLut lut) {
+        synchronized(this) {
+            pendingData = data;
+            pendingLut = lut;
+            pendingSeq = ++requestSeq;
+            if(running) {
+                return;
+            }
+            running = true;
+        }
+
+        RENDERER.execute(new Runnable() {
+            public void run() {
+                renderPending();
+            }
+        });
+    }
+
+    /**
+     * Abandon the running render and drop pending requests
+     */
+    public void cancel() {
+        synchronized(this) {
+            epoch++;
+            pendingData = null;
+            pendingLut = null;
+        }
+    }
+
+    private void renderPending() {
+        while(true) {
+            PixelBuffer data;
+            ColorLut lut;
+            final int seq, myEpoch;
+
+            synchronized(this) {
+                if(pendingLut == null) {
+                    running = false;
+                    return;
+                }
+                data = pendingData;
+                lut = pendingLut;
+                seq = pendingSeq;
+                myEpoch = epoch;
+                pendingData = null;
+                pendingLut = null;
+            }
+
+            try {
+                final BufferedImage image = render(data, lut, myEpoch);
+                if(image != null) {
+                    SwingUtilities.invokeLater(new Runnable() {
+                        public void run() {
+                            if(myEpoch == epoch && seq > shownSeq) {
+                                shownSeq = seq;
+                                target.imageRendered(image);
+                            }
+                        }
+                    });
+                }
+            }
+            catch(RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /*
+     * render in blocks of rows, return null if cancelled on the way
+     */
+    private BufferedImage render(final PixelBuffer data, final ColorLut lut, int myEpoch) {
+
+        int height = data.getHeight();
+        BufferedImage image = new BufferedImage(data.getWidth(), height, BufferedImage.TYPE_INT_RGB);
+        final int[] dst = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+        for(int y = 0; y < height; y += BLOCK_ROWS) {
+            if(myEpoch != epoch) {
+                return null;
+            }
+            final int y0 = y;
+            ParallelUtil.forEachBand(Math.min(BLOCK_ROWS, height - y), MIN_BAND_ROWS, new ParallelUtil.BandTask() {
+                public void run(int from, int to) {
+                    lut.apply(data, y0 + from, y0 + to, dst);
+                }
+            });
+        }
+
+        return myEpoch == epoch ? image : null;
+    }
+
+} // class RenderScheduler
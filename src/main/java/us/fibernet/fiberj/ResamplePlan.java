@@ -0,0 +1,162 @@
+/*
+ * Copyright Wen Bian. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list
+ *   of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer listed in this license in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * - Neither the name of the copyright holders nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package us.fibernet.fiberj;
+
+/**
+ * A precomputed bilinear resampling from a source grid to a target grid, e.g., from a
+ * detector pattern to reciprocal (R, Z) or polar (r, phi) coordinates.
+ *
+ * For every target pixel the plan holds the source offset of the top-left of the 2 x 2
+ * pixels it falls between and its fractional position there, which fix the four weights.
+ * The expensive part, mapping target to source coordinates, is done once when the plan is
+ * built; applying it to a frame is a gather. A plan only depends on the grid sizes and the
+ * mapping, so it is built once per geometry and applied to every frame of a series.
+ * Building and applying both run in parallel bands of target rows.
+ */
+public final class ResamplePlan {
+
+    /** maps target pixels to source coordinates; called from several threads at once */
+    public interface Mapping {
+        /**
+         * @param xy  receives the source (x, y) of target pixel (x, y)
+         * @return  false if the target pixel has no source
+         */
+        boolean map(int x, int y, double[] xy);
+    }
+
+    private static final int MIN_BAND_ROWS = 16;   // fewest target rows worth a thread
+
+    private final int width, height;               // target size
+    private final int sourceWidth, sourceHeight;
+    private final int[] base;      // source y * sourceWidth + x of the top-left tap, -1 for none
+    private final float[] fracX;   // weight of the right hand taps
+    private final float[] fracY;   // weight of the bottom taps
+
+    private ResamplePlan(int width, int height, int sourceWidth, int sourceHeight) {
+        this.width = width;
+        this.height = height;
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        base = new int[width * height];
+        fracX = new float[width * height];
+        fracY = new float[width * height];
+    }
+
+    /**
+     * build a plan for a width x height target from a source of at least 2 x 2 pixels.
+     * Target pixels mapped outside the source get no source.
+     */
+    public static ResamplePlan build(final int width, final int height, int sourceWidth, int sourceHeight,
+                                     final Mapping mapping) {
+        if(width < 1 || height < 1 || sourceWidth < 2 || sourceHeight < 2) {
+            throw new IllegalArgumentException("invalid resampling size");
+        }
+        final ResamplePlan plan = new ResamplePlan(width, height, sourceWidth, sourceHeight);
+        final int sw = sourceWidth, sh = sourceHeight;
+
+        ParallelUtil.forEachBand(height, MIN_BAND_ROWS, new ParallelUtil.BandTask() {
+            public void run(int from, int to) {
+                double[] xy = new double[2];
+                for(int y = from; y < to; y++) {
+                    for(int x = 0, k = y * width; x < width; x++, k++) {
+                        if(!mapping.map(x, y, xy) || !(xy[0] >= 0 && xy[0] <= sw - 1 && xy[1] >= 0 && xy[1] <= sh - 1)) {
+                            plan.base[k] = -1;
+                            continue;
+                        }
+                        int x0 = Math.min((int) xy[0], sw - 2);
+                        int y0 = Math.min((int) xy[1], sh - 2);
+                        plan.base[k] = y0 * sw + x0;
+                        plan.fracX[k] = (float) (xy[0] - x0);
+                        plan.fracY[k] = (float) (xy[1] - y0);
+                    }
+                }
+            }
+        });
+
+        return plan;
+    }
+
+    public int getWidth()         { return width;        }
+    public int getHeight()        { return height;       }
+    public int getSourceWidth()   { return sourceWidth;  }
+    public int getSourceHeight()  { return sourceHeight; }
+
+    /** @return  if target pixel (x, y) has a source */
+    public boolean isMapped(int x, int y) {
+        return base[y * width + x] >= 0;
+    }
+
+    /**
+     * @return  src resampled into a new buffer, unmapped pixels 0
+     */
+    public PixelBuffer apply(PixelBuffer src) {
+        PixelBuffer dst = new PixelBuffer(width, height);
+        apply(src, dst, 0);
+        return dst;
+    }
+
+    /**
+     * resample src into dst, which may be reused frame after frame
+     *
+     * @param empty  value of target pixels with no source
+     */
+    public void apply(PixelBuffer src, final PixelBuffer dst, final int empty) {
+        if(src.getWidth() != sourceWidth || src.getHeight() != sourceHeight ||
+           dst.getWidth() != width || dst.getHeight() != height) {
+            throw new IllegalArgumentException("buffer size does not match the resampling plan");
+        }
+        if(src.getStride() != sourceWidth) {
+            src = src.copy();
+        }
+
+        final int[] in = src.getArray();
+        final int offset = src.getOffset();
+        final int[] out = dst.getArray();
+        final int sw = sourceWidth;
+
+        ParallelUtil.forEachBand(height, MIN_BAND_ROWS, new ParallelUtil.BandTask() {
+            public void run(int from, int to) {
+                for(int y = from; y < to; y++) {
+                    for(int x = 0, k = y * width, p = dst.index(0, y); x < width; x++, k++) {
+                        int b = base[k];
+                        if(b < 0) {
+                            out[p++] = empty;
+                            continue;
+                        }
+                        int i = offset + b;
+                        double fx = fracX[k], fy = fracY[k];   // double, 32-bit data exceeds a float
+                        double top = in[i] + fx * ((double) in[i + 1] - in[i]);
+                        double bottom = in[i + sw] + fx * ((double) in[i + sw + 1] - in[i + sw]);
+                        out[p++] = (int) Math.round(top + fy * (bottom - top));
+                    }
+                }
+            }
+        });
+    }
+
+} // class ResamplePlan
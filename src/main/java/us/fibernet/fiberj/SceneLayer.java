@@ -0,0 +1,179 @@
+/*
+ * Copyright Wen Bian. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list
+ *   of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer listed in this license in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * - Neither the name of the copyright holders nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package us.fibernet.fiberj;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.Path2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One layer of the retained overlay scene, e.g., all circles of a DrawDialog.
+ *
+ * The display geometry of each object is cached with the parameters it was built from and
+ * rebuilt only when those change. Shapes of the same color are merged into one path, so a
+ * layer paints with one draw call per color. An update reports the area covered by the
+ * shapes that changed, which is all that needs repainting.
+ */
+public class SceneLayer<T> {
+
+    /** builds the display geometry of an object */
+    public interface Geometry<T> {
+        /** the parameters the shape depends on; it is rebuilt when any of them changes */
+        double[] getKey(T object);
+        /** the shape in display coordinates, or null if the object can not be drawn */
+        Shape build(T object);
+        Color getColor(T object);
+    }
+
+    private static final int MARGIN = 2;   // covers the stroke around a shape's bounds
+
+    private static class Entry {
+        double[] key;
+        Shape shape;
+        Color color;
+    }
+
+    private final Geometry<T> geometry;
+    private Map<T, Entry> entries = new IdentityHashMap<T, Entry>();
+    private Map<Color, Path2D> batches = new LinkedHashMap<Color, Path2D>();
+    private List<T> objects = new ArrayList<T>();
+    private boolean isComplete = true;
+
+    public SceneLayer(Geometry<T> geometry) {
+        this.geometry = geometry;
+    }
+
+    /**
+     * Make the layer show objects, reusing the cached shapes of those unchanged since the
+     * last update. objects is kept, see refresh().
+     *
+     * @return  the area to repaint, null if nothing changed
+     */
+    public Rectangle update(List<T> objects) {
+        this.objects = objects;
+        Rectangle dirty = null;
+        isComplete = true;
+
+        Map<T, Entry> updated = new IdentityHashMap<T, Entry>();
+        for(T object : objects) {
+            double[] key = geometry.getKey(object);
+            Color color = geometry.getColor(object);
+            Entry e = entries.remove(object);
+            if(e == null || !Arrays.equals(e.key, key)) {
+                if(e != null) {
+                    dirty = addBounds(dirty, e.shape);
+                }
+                e = new Entry();
+                e.key = key;
+                e.color = color;
+                e.shape = geometry.build(object);
+                dirty = addBounds(dirty, e.shape);
+            }
+            else if(!color.equals(e.color)) {
+                e.color = color;
+                dirty = addBounds(dirty, e.shape);
+            }
+            if(e.shape == null) {
+                isComplete = false;
+            }
+            updated.put(object, e);
+        }
+
+        // whatever is left is no longer shown
+        for(Entry e : entries.values()) {
+            dirty = addBounds(dirty, e.shape);
+        }
+        entries = updated;
+
+        if(dirty != null) {
+            batches = new LinkedHashMap<Color, Path2D>();
+            for(Entry e : entries.values()) {
+                if(e.shape != null) {
+                    Path2D batch = batches.get(e.color);
+                    if(batch == null) {
+                        batch = new Path2D.Double();
+                        batches.put(e.color, batch);
+                    }
+                    batch.append(e.shape, false);
+                }
+            }
+            dirty.grow(MARGIN, MARGIN);
+        }
+        return dirty;
+    }
+
+    /**
+     * update with the objects of the last update, e.g., after the display is rescaled or
+     * objects were changed in place
+     */
+    public Rectangle refresh() {
+        return update(objects);
+    }
+
+    /**
+     * drop the keys of the cached shapes, so the next update rebuilds them all, e.g., when
+     * something they depend on but their keys do not hold has changed
+     */
+    public void invalidate() {
+        for(Entry e : entries.values()) {
+            e.key = null;
+        }
+    }
+
+    /** @return false if the last update had objects that could not be drawn */
+    public boolean isComplete() {
+        return isComplete;
+    }
+
+    public void paint(Graphics2D g) {
+        for(Map.Entry<Color, Path2D> batch : batches.entrySet()) {
+            g.setColor(batch.getKey());
+            g.draw(batch.getValue());
+        }
+    }
+
+    // a negative size marks an area still empty, see Rectangle.add()
+    private static Rectangle addBounds(Rectangle r, Shape shape) {
+        if(r == null) {
+            r = new Rectangle(0, 0, -1, -1);
+        }
+        if(shape != null) {
+            r.add(shape.getBounds());
+        }
+        return r;
+    }
+
+} // class SceneLayer
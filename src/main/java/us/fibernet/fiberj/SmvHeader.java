@@ -0,0 +1,257 @@
+/*
+ * Copyright Kate Wu. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list
+ *   of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer listed in this license in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * - Neither the name of the copyright holders nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package us.fibernet.fiberj;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The header of a SMV file, parsed once into typed values.
+ *
+ * A SMV header is a block of "KEY=value;" statements enclosed in { } at the beginning of
+ * the file, padded to HEADER_BYTES. Only the header is read, so directory scans can call
+ * read() on many files without touching their pixel data.
+ */
+public final class SmvHeader {
+
+    static final int DEFAULT_LENGTH = 512;  // header size of almost all SMV files
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final Map<String, String> entries;  // every key=value pair, keys in upper case
+    private final boolean isComplete;           // if the closing } was seen
+
+    private final int headerBytes;
+    private final int width;         // SIZE1
+    private final int height;        // SIZE2
+    private final boolean isBigEndian;
+    private final String type;
+    private final double pixelSize;
+    private final double wavelength;
+    private final double distance;
+    private final double offset;
+    private final double beamCenterX;  // NaN if not in the header
+    private final double beamCenterY;  // NaN if not in the header
+    private final boolean isRecip;
+
+    private SmvHeader(Map<String, String> entries, boolean isComplete) {
+        this.entries = entries;
+        this.isComplete = isComplete;
+
+        headerBytes = (int) getDouble("HEADER_BYTES", 0);
+        width       = (int) getDouble("SIZE1", 0);
+        height      = (int) getDouble("SIZE2", 0);
+        type        = entries.get("TYPE");
+        pixelSize   = getDouble("PIXEL_SIZE", 0);
+        wavelength  = getDouble("WAVELENGTH", 0);
+        distance    = getDouble("DISTANCE", 0);
+        offset      = getDouble("OFFSET", 0);
+        beamCenterX = getDouble("BEAM_CENTER_X", Double.NaN);
+        beamCenterY = getDouble("BEAM_CENTER_Y", Double.NaN);
+        isRecip     = "1".equals(entries.get("IS_RECIP"));
+
+        String order = entries.get("BYTE_ORDER");
+        isBigEndian = order != null && order.toLowerCase().startsWith("big");
+    }
+
+    /**
+     * read and parse the header of a SMV file. return null if the file can not be read.
+     */
+    public static SmvHeader read(String fileName) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(fileName, "r");
+            return read(raf.getChannel());
+        }
+        catch(IOException e) {
+            e.printStackTrace();
+        }
+        finally {
+            if(raf != null) {
+                try {
+                    raf.close();
+                }
+                catch(Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * read and parse the header at the beginning of an open channel. The channel's
+     * position is not changed.
+     */
+    public static SmvHeader read(FileChannel ch) throws IOException {
+        byte[] bytes = readBytes(ch, DEFAULT_LENGTH);
+        SmvHeader header = parse(bytes, bytes.length);
+
+        // a header longer than the default is rare, parse it again in full
+        if(!header.isComplete && header.headerBytes > bytes.length) {
+            bytes = readBytes(ch, header.headerBytes);
+            header = parse(bytes, bytes.length);
+        }
+
+        return header;
+    }
+
+    // read up to n bytes from the beginning of a channel
+    private static byte[] readBytes(FileChannel ch, int n) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((int) Math.min(n, ch.size()));
+        while(buf.hasRemaining()) {
+            if(ch.read(buf, buf.position()) < 0) {
+                break;
+            }
+        }
+        byte[] bytes = new byte[buf.position()];
+        System.arraycopy(buf.array(), 0, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    /*
+     * Tokenize the header bytes. A statement is KEY[=value][;], with any number of blanks
+     * around = and ;. A key without value is a flag and gets value "1". Values end at a
+     * blank, = or ;, anything after that up to the end of the statement is ignored.
+     */
+    static SmvHeader parse(byte[] b, int len) {
+        Map<String, String> map = new LinkedHashMap<String, String>();
+        boolean complete = false;
+
+        int i = 0;
+        while(i < len && b[i] != '{') {
+            i++;
+        }
+        i++;
+
+        while(i < len) {
+            byte c = b[i];
+
+            if(c == '}') {
+                complete = true;
+                break;
+            }
+            if(isBlank(c) || c == ';' || c == '=') {
+                i++;
+                continue;
+            }
+
+            // key
+            int k0 = i;
+            while(i < len && !isDelimiter(b[i])) {
+                i++;
+            }
+            String key = new String(b, k0, i - k0, ASCII).toUpperCase();
+
+            // value, if there is one on this line
+            String value = "1";
+            while(i < len && (b[i] == ' ' || b[i] == '\t')) {
+                i++;
+            }
+            if(i < len && b[i] == '=') {
+                while(i < len && (b[i] == '=' || b[i] == ' ' || b[i] == '\t')) {
+                    i++;
+                }
+                int v0 = i;
+                while(i < len && !isDelimiter(b[i])) {
+                    i++;
+                }
+                if(i > v0) {
+                    value = new String(b, v0, i - v0, ASCII);
+                }
+            }
+            map.put(key, value);
+
+            // skip the rest of the statement
+            while(i < len && b[i] != ';' && b[i] != '\n' && b[i] != '}') {
+                i++;
+            }
+        }
+
+        return new SmvHeader(map, complete);
+    }
+
+    private static boolean isBlank(byte c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == 0;
+    }
+
+    private static boolean isDelimiter(byte c) {
+        return isBlank(c) || c == '=' || c == ';' || c == '}';
+    }
+
+    // value of key as a double, or def if it is missing or not a number
+    private double getDouble(String key, double def) {
+        String s = entries.get(key);
+        if(s == null) {
+            return def;
+        }
+        try {
+            return Double.parseDouble(s);
+        }
+        catch(NumberFormatException e) {
+            return def;
+        }
+    }
+
+
+    /*------------------------------- getters -------------------------------*/
+
+    public int     getHeaderBytes()   { return headerBytes;  }
+    public int     getWidth()         { return width;        }
+    public int     getHeight()        { return height;       }
+    public boolean isBigEndian()      { return isBigEndian;  }
+    public String  getType()          { return type;         }
+    public double  getPixelSize()     { return pixelSize;    }
+    public double  getWavelength()    { return wavelength;   }
+    public double  getDistance()      { return distance;     }
+    public double  getOffset()        { return offset;       }
+    public double  getBeamCenterX()   { return beamCenterX;  }
+    public double  getBeamCenterY()   { return beamCenterY;  }
+    public boolean isRecip()          { return isRecip;      }
+
+    /** raw value of a header entry, or null */
+    public String get(String key) {
+        return entries.get(key.toUpperCase());
+    }
+
+    /** if the entries needed to locate and decode the image data are all present */
+    public boolean hasImageInfo() {
+        return entries.containsKey("BYTE_ORDER") && entries.containsKey("TYPE") &&
+               headerBytes > 0 && width > 0 && height > 0;
+    }
+
+    public String toString() {
+        return entries.toString();
+    }
+
+} // class SmvHeader
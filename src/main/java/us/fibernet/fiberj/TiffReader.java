@@ -0,0 +1,674 @@
+/*
+ * Copyright Wen Bian. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list
+ *   of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer listed in this license in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * - Neither the name of the copyright holders nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package us.fibernet.fiberj;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A pure Java reader for the grayscale TIFF images written by area detectors.
+ *
+ * Opening a file only walks its chain of image file directories, so the pages of a
+ * multi-page stack are listed without decoding any of them. A page is decoded when read.
+ *
+ * Supported are 8, 16, 32 and 64 bit samples (unsigned, signed or floating point), strip
+ * or tile layout, and no compression, PackBits, LZW or Deflate, with or without horizontal
+ * differencing. Only the first sample of a multi-sample (e.g., RGB) image is read.
+ *
+ * The file is memory mapped. Strips or tiles are independent of each other, so they are
+ * decompressed in parallel, each straight into its rows of the output PixelBuffer.
+ * Uncompressed strips are converted from the mapping without an intermediate copy.
+ */
+public final class TiffReader {
+
+    // tags
+    private static final int IMAGE_WIDTH       = 256;
+    private static final int IMAGE_LENGTH      = 257;
+    private static final int BITS_PER_SAMPLE   = 258;
+    private static final int COMPRESSION       = 259;
+    private static final int STRIP_OFFSETS     = 273;
+    private static final int SAMPLES_PER_PIXEL = 277;
+    private static final int ROWS_PER_STRIP    = 278;
+    private static final int STRIP_BYTE_COUNTS = 279;
+    private static final int PLANAR_CONFIG     = 284;
+    private static final int PREDICTOR         = 317;
+    private static final int TILE_WIDTH        = 322;
+    private static final int TILE_LENGTH       = 323;
+    private static final int TILE_OFFSETS      = 324;
+    private static final int TILE_BYTE_COUNTS  = 325;
+    private static final int SAMPLE_FORMAT     = 339;
+
+    // compression schemes
+    private static final int NONE          = 1;
+    private static final int LZW           = 5;
+    private static final int DEFLATE       = 8;
+    private static final int DEFLATE_OLD   = 32946;
+    private static final int PACKBITS      = 32773;
+
+    // field types
+    private static final int TYPE_BYTE  = 1;
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG  = 4;
+
+    private final ByteBuffer file;   // whole file, in the file's byte order
+    private final ByteOrder order;
+    private final long[] pages;      // directory offset of each page
+
+    // attributes of the image directory being read
+    private int width;
+    private int height;
+    private int samplesPerPixel;
+    private int compression;
+    private int predictor;
+    private PixelType type;
+    private int chunkWidth;         // width of a strip (= image width) or tile
+    private int chunkHeight;        // rows in a strip or tile
+    private long[] chunkOffsets;
+    private long[] chunkByteCounts;
+
+    /**
+     * open a TIFF file and list its pages
+     */
+    public TiffReader(String fileName) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(fileName, "r");
+        try {
+            FileChannel ch = raf.getChannel();
+            if(ch.size() > Integer.MAX_VALUE) {
+                throw new IOException("TIFF file too large: " + fileName);
+            }
+            // the mapping stays valid after the file is closed
+            file = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        finally {
+            raf.close();
+        }
+
+        if(file.limit() < 8) {
+            throw new IOException("not a TIFF file");
+        }
+
+        int b0 = file.get(0), b1 = file.get(1);
+        if(b0 == 'I' && b1 == 'I') {
+            order = ByteOrder.LITTLE_ENDIAN;
+        }
+        else if(b0 == 'M' && b1 == 'M') {
+            order = ByteOrder.BIG_ENDIAN;
+        }
+        else {
+            throw new IOException("not a TIFF file");
+        }
+        file.order(order);
+
+        int magic = file.getShort(2) & 0xFFFF;
+        if(magic != 42) {
+            throw new IOException(magic == 43 ? "BigTIFF is not supported" : "not a TIFF file");
+        }
+
+        pages = listPages();
+    }
+
+    /**
+     * read the first image of a TIFF file
+     */
+    public static PixelBuffer readImage(String fileName) throws IOException {
+        return new TiffReader(fileName).read(0);
+    }
+
+    public int getPageCount() {
+        return pages.length;
+    }
+
+    /**
+     * return {width, height} of a page, without decoding it
+     */
+    public synchronized int[] getPageSize(int page) throws IOException {
+        readDirectory(getPageOffset(page));
+        return new int[] { width, height };
+    }
+
+    /**
+     * decode page number page (0 based)
+     */
+    public synchronized PixelBuffer read(int page) throws IOException {
+        readDirectory(getPageOffset(page));
+        return decode();
+    }
+
+    /**
+     * read a preview of page: every step-th pixel of every step-th row, step the smallest
+     * that brings its longer side down to size, without decoding the rest of the page.
+     * Uncompressed data is sampled straight from the file, compressed strips are decoded
+     * only where they hold a sampled row.
+     *
+     * @return  null if the page is no larger than size, or if it is compressed in tiles or
+     *          in strips of step rows or more, so a preview costs about a full decode
+     */
+    public synchronized PixelBuffer readPreview(int page, int size) throws IOException {
+        readDirectory(getPageOffset(page));
+
+        int step = (Math.max(width, height) + size - 1) / size;
+        boolean raw = compression == NONE && predictor != 2;
+        if(step < 2 || (!raw && (chunkWidth != width || chunkHeight >= step))) {
+            return null;
+        }
+
+        PixelBuffer preview = new PixelBuffer((width + step - 1) / step, (height + step - 1) / step);
+        int chunksAcross = (width + chunkWidth - 1) / chunkWidth;
+        int pixelBytes = samplesPerPixel * type.getSize();
+        PixelBuffer strip = raw ? null : new PixelBuffer(width, chunkHeight);
+        int stripIndex = -1;
+
+        for(int j = 0; j < preview.getHeight(); j++) {
+            int y = j * step;
+            int chunkRow = y / chunkHeight;
+            if(raw) {
+                for(int i = 0; i < preview.getWidth(); i++) {
+                    int x = i * step;
+                    long pos = chunkOffsets[chunkRow * chunksAcross + x / chunkWidth] +
+                               (long) (y % chunkHeight) * getChunkRowBytes() + (long) (x % chunkWidth) * pixelBytes;
+                    preview.set(i, j, PixelDecoder.get(file, checkOffset(pos, type.getSize()), type));
+                }
+            }
+            else {
+                if(chunkRow != stripIndex) {
+                    decodeChunk(chunkRow, 0, chunkRow * chunkHeight, strip, 0);
+                    stripIndex = chunkRow;
+                }
+                for(int i = 0; i < preview.getWidth(); i++) {
+                    preview.set(i, j, strip.get(i * step, y % chunkHeight));
+                }
+            }
+        }
+
+        return preview;
+    }
+
+    private long getPageOffset(int page) throws IOException {
+        if(page < 0 || page >= pages.length) {
+            throw new IOException("page " + page + " not in file, which has " + pages.length + " pages");
+        }
+        return pages[page];
+    }
+
+    /*
+     * follow the chain of image file directories, stopping at a broken or looping link
+     */
+    private long[] listPages() throws IOException {
+
+        List<Long> offsets = new ArrayList<Long>();
+        Set<Long> seen = new HashSet<Long>();
+        long offset = file.getInt(4) & 0xFFFFFFFFL;
+
+        while(offset != 0 && offset + 2 <= file.limit() && seen.add(offset)) {
+            int n = file.getShort((int) offset) & 0xFFFF;
+            long next = offset + 2 + n * 12L;
+            if(next + 4 > file.limit()) {
+                break;
+            }
+            offsets.add(offset);
+            offset = file.getInt((int) next) & 0xFFFFFFFFL;
+        }
+
+        if(offsets.isEmpty()) {
+            throw new IOException("TIFF file has no images");
+        }
+
+        long[] result = new long[offsets.size()];
+        for(int i = 0; i < result.length; i++) {
+            result[i] = offsets.get(i);
+        }
+        return result;
+    }
+
+    /*
+     * parse the image file directory at offset
+     */
+    private void readDirectory(long offset) throws IOException {
+
+        int ifd = checkOffset(offset, 2);
+        int n = file.getShort(ifd) & 0xFFFF;
+        checkOffset(ifd + 2, n * 12);
+
+        width = height = 0;
+        samplesPerPixel = 1;
+        compression = NONE;
+        predictor = 1;
+        chunkWidth = chunkHeight = 0;
+        chunkOffsets = chunkByteCounts = null;
+        int bits = 1;
+        int format = 1;
+        int planar = 1;
+        long[] stripOffsets = null, stripByteCounts = null, tileOffsets = null, tileByteCounts = null;
+
+        for(int i = 0; i < n; i++) {
+            int entry = ifd + 2 + i * 12;
+            int tag = file.getShort(entry) & 0xFFFF;
+
+            switch(tag) {
+            case IMAGE_WIDTH:       width = (int) getValue(entry);               break;
+            case IMAGE_LENGTH:      height = (int) getValue(entry);              break;
+            case BITS_PER_SAMPLE:   bits = (int) getValue(entry);                break;
+            case COMPRESSION:       compression = (int) getValue(entry);         break;
+            case SAMPLES_PER_PIXEL: samplesPerPixel = (int) getValue(entry);     break;
+            case ROWS_PER_STRIP:    chunkHeight = (int) Math.min(getValue(entry), Integer.MAX_VALUE); break;
+            case PLANAR_CONFIG:     planar = (int) getValue(entry);              break;
+            case PREDICTOR:         predictor = (int) getValue(entry);           break;
+            case SAMPLE_FORMAT:     format = (int) getValue(entry);              break;
+            case TILE_WIDTH:        chunkWidth = (int) getValue(entry);          break;
+            case TILE_LENGTH:       chunkHeight = (int) getValue(entry);         break;
+            case STRIP_OFFSETS:     stripOffsets = getValues(entry);             break;
+            case STRIP_BYTE_COUNTS: stripByteCounts = getValues(entry);          break;
+            case TILE_OFFSETS:      tileOffsets = getValues(entry);              break;
+            case TILE_BYTE_COUNTS:  tileByteCounts = getValues(entry);           break;
+            default:                                                             break;
+            }
+        }
+
+        if(width < 1 || height < 1) {
+            throw new IOException("invalid TIFF image size: " + width + " x " + height);
+        }
+
+        type = getPixelType(bits, format);
+
+        if(samplesPerPixel < 1 || (samplesPerPixel > 1 && planar == 2)) {
+            // planar images store the first sample in the first chunks, read just those
+            samplesPerPixel = 1;
+        }
+
+        if(compression != NONE && compression != LZW && compression != DEFLATE &&
+           compression != DEFLATE_OLD && compression != PACKBITS) {
+            throw new IOException("unsupported TIFF compression: " + compression);
+        }
+        if(predictor != 1 && predictor != 2) {
+            throw new IOException("unsupported TIFF predictor: " + predictor);
+        }
+
+        if(tileOffsets != null) {
+            if(chunkWidth < 1 || chunkHeight < 1 || tileByteCounts == null) {
+                throw new IOException("invalid TIFF tiles");
+            }
+            chunkOffsets = tileOffsets;
+            chunkByteCounts = tileByteCounts;
+        }
+        else {
+            if(stripOffsets == null) {
+                throw new IOException("TIFF image has no strips or tiles");
+            }
+            chunkWidth = width;
+            if(chunkHeight < 1 || chunkHeight > height) {
+                chunkHeight = height;
+            }
+            chunkOffsets = stripOffsets;
+            chunkByteCounts = stripByteCounts;
+        }
+
+        int chunksAcross = (width + chunkWidth - 1) / chunkWidth;
+        int chunksDown = (height + chunkHeight - 1) / chunkHeight;
+        if(chunkOffsets.length < chunksAcross * chunksDown) {
+            throw new IOException("TIFF image is missing strips or tiles");
+        }
+        if(chunkByteCounts == null) {
+            if(compression != NONE) {
+                throw new IOException("TIFF image has no strip byte counts");
+            }
+            chunkByteCounts = new long[chunkOffsets.length];
+            Arrays.fill(chunkByteCounts, (long) getChunkRowBytes() * chunkHeight);
+        }
+    }
+
+    private static PixelType getPixelType(int bits, int format) throws IOException {
+        switch(bits * 10 + format) {
+        case 81:  return PixelType.UNSIGNED_BYTE;
+        case 82:  return PixelType.BYTE;
+        case 161: return PixelType.UNSIGNED_SHORT;
+        case 162: return PixelType.SHORT;
+        case 321: return PixelType.UNSIGNED_INT;
+        case 322: return PixelType.INT;
+        case 323: return PixelType.FLOAT;
+        case 643: return PixelType.DOUBLE;
+        default:  throw new IOException("unsupported TIFF sample: " + bits + " bits, format " + format);
+        }
+    }
+
+    private int checkOffset(long offset, int length) throws IOException {
+        if(offset < 0 || offset + length > file.limit()) {
+            throw new IOException("TIFF offset out of file: " + offset);
+        }
+        return (int) offset;
+    }
+
+    /*
+     * return the values of an IFD entry
+     */
+    private long[] getValues(int entry) throws IOException {
+        int fieldType = file.getShort(entry + 2) & 0xFFFF;
+        long count = file.getInt(entry + 4) & 0xFFFFFFFFL;
+        int size = fieldType == TYPE_BYTE ? 1 : fieldType == TYPE_SHORT ? 2 : fieldType == TYPE_LONG ? 4 : 0;
+
+        if(size == 0 || count > Integer.MAX_VALUE / size) {
+            throw new IOException("unexpected TIFF field type " + fieldType + " of tag " +
+                                  (file.getShort(entry) & 0xFFFF));
+        }
+
+        int pos = size * count <= 4 ? entry + 8 : checkOffset(file.getInt(entry + 8) & 0xFFFFFFFFL, (int) (size * count));
+        long[] values = new long[(int) count];
+        for(int i = 0; i < values.length; i++, pos += size) {
+            values[i] = size == 1 ? file.get(pos) & 0xFF :
+                        size == 2 ? file.getShort(pos) & 0xFFFF : file.getInt(pos) & 0xFFFFFFFFL;
+        }
+
+        return values;
+    }
+
+    private long getValue(int entry) throws IOException {
+        long[] values = getValues(entry);
+        return values.length > 0 ? values[0] : 0;
+    }
+
+    private int getChunkRowBytes() {
+        return chunkWidth * samplesPerPixel * type.getSize();
+    }
+
+    /*
+     * decode all strips or tiles of the current directory
+     */
+    private PixelBuffer decode() throws IOException {
+
+        final PixelBuffer data = new PixelBuffer(width, height);
+        final int chunksAcross = (width + chunkWidth - 1) / chunkWidth;
+        final int chunksDown = (height + chunkHeight - 1) / chunkHeight;
+
+        try {
+            ParallelUtil.forEach(chunksAcross * chunksDown, new ParallelUtil.BandTask() {
+                public void run(int from, int to) {
+                    for(int i = from; i < to; i++) {
+                        try {
+                            int y0 = (i / chunksAcross) * chunkHeight;
+                            decodeChunk(i, (i % chunksAcross) * chunkWidth, y0, data, y0);
+                        }
+                        catch(IOException e) {
+                            throw new ChunkException(e);
+                        }
+                    }
+                }
+            });
+        }
+        catch(ChunkException e) {
+            throw (IOException) e.getCause();
+        }
+
+        return data;
+    }
+
+    // carries an IOException out of a parallel task
+    private static final class ChunkException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        ChunkException(IOException cause) {
+            super(cause);
+        }
+    }
+
+    /*
+     * decode strip or tile i whose top left pixel is (x0, y0) into dst, its first row
+     * into row dstY0 of dst
+     */
+    private void decodeChunk(int i, int x0, int y0, PixelBuffer dst, int dstY0) throws IOException {
+
+        int rowBytes = getChunkRowBytes();
+        int rows = Math.min(chunkHeight, height - y0);
+        int cols = Math.min(chunkWidth, width - x0);
+        // a strip may end early at the last row, a tile is always full size
+        int expected = rowBytes * (chunkWidth == width ? rows : chunkHeight);
+
+        int offset = checkOffset(chunkOffsets[i], 0);
+        int count = (int) Math.min(chunkByteCounts[i], file.limit() - offset);
+
+        ByteBuffer src = file.duplicate();
+        src.limit(offset + count).position(offset);
+        src = src.slice();
+
+        if(compression != NONE || predictor == 2) {
+            byte[] bytes = new byte[expected];
+
+            switch(compression) {
+            case NONE:         src.get(bytes, 0, Math.min(count, expected));    break;
+            case PACKBITS:     unpackBits(src, bytes);                           break;
+            case LZW:          lzwDecode(src, bytes);                            break;
+            default:           inflate(src, bytes);                              break;
+            }
+
+            if(predictor == 2) {
+                undoDifferencing(bytes, rowBytes);
+            }
+            src = ByteBuffer.wrap(bytes);
+        }
+        else if(count < (rows - 1) * rowBytes + cols * samplesPerPixel * type.getSize()) {
+            throw new IOException("TIFF strip or tile " + i + " is truncated");
+        }
+
+        int[] pixels = dst.getArray();
+
+        if(samplesPerPixel == 1 && chunkWidth == width && dst.getStride() == width) {
+            PixelDecoder.decode(src, order, type, pixels, dst.index(0, dstY0), rows * cols);
+            return;
+        }
+
+        int[] row = samplesPerPixel == 1 ? null : new int[cols * samplesPerPixel];
+        for(int r = 0; r < rows; r++) {
+            src.position(r * rowBytes);
+            if(row == null) {
+                PixelDecoder.decode(src, order, type, pixels, dst.index(x0, dstY0 + r), cols);
+            }
+            else {
+                PixelDecoder.decode(src, order, type, row, 0, row.length);
+                int p = dst.index(x0, dstY0 + r);
+                for(int c = 0; c < cols; c++) {
+                    pixels[p + c] = row[c * samplesPerPixel];
+                }
+            }
+        }
+    }
+
+    /*
+     * undo horizontal differencing (predictor 2) in place, row by row
+     */
+    private void undoDifferencing(byte[] bytes, int rowBytes) {
+
+        ByteBuffer b = ByteBuffer.wrap(bytes).order(order);
+        int size = type.getSize();
+        int step = samplesPerPixel * size;
+
+        for(int start = 0; start + rowBytes <= bytes.length; start += rowBytes) {
+            for(int p = start + step; p < start + rowBytes; p += size) {
+                switch(size) {
+                case 1:  bytes[p] += bytes[p - step];                                    break;
+                case 2:  b.putShort(p, (short) (b.getShort(p) + b.getShort(p - step)));  break;
+                case 4:  b.putInt(p, b.getInt(p) + b.getInt(p - step));                 break;
+                default: b.putLong(p, b.getLong(p) + b.getLong(p - step));               break;
+                }
+            }
+        }
+    }
+
+    /*
+     * PackBits run length decoding
+     */
+    private static void unpackBits(ByteBuffer src, byte[] dst) {
+        int p = 0;
+        while(src.hasRemaining() && p < dst.length) {
+            int n = src.get();
+            if(n >= 0) {
+                int len = Math.min(Math.min(n + 1, src.remaining()), dst.length - p);
+                src.get(dst, p, len);
+                p += len;
+            }
+            else if(n != -128 && src.hasRemaining()) {
+                byte b = src.get();
+                int end = Math.min(p + 1 - n, dst.length);
+                while(p < end) {
+                    dst[p++] = b;
+                }
+            }
+        }
+    }
+
+    /*
+     * Deflate (zlib) decoding
+     */
+    private static void inflate(ByteBuffer src, byte[] dst) throws IOException {
+        byte[] in = new byte[src.remaining()];
+        src.get(in);
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(in);
+            int p = 0;
+            while(p < dst.length && !inflater.finished()) {
+                int n = inflater.inflate(dst, p, dst.length - p);
+                if(n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                p += n;
+            }
+        }
+        catch(DataFormatException e) {
+            throw new IOException("corrupt Deflate data in TIFF: " + e.getMessage());
+        }
+        finally {
+            inflater.end();
+        }
+    }
+
+    /*
+     * TIFF flavour of LZW decoding: MSB first codes of 9 to 12 bits, code width grows
+     * one code early
+     */
+    private static void lzwDecode(ByteBuffer src, byte[] dst) throws IOException {
+
+        final int CLEAR = 256, EOI = 257;
+        short[] prefix = new short[4096];
+        byte[] suffix = new byte[4096];
+        byte[] first = new byte[4096];
+        int[] length = new int[4096];
+
+        for(int i = 0; i < 256; i++) {
+            suffix[i] = first[i] = (byte) i;
+            length[i] = 1;
+        }
+
+        int codeLen = 9, next = 258, old = -1;
+        int bitBuf = 0, bitCount = 0;
+        int p = 0;
+
+        while(p < dst.length) {
+            while(bitCount < codeLen && src.hasRemaining()) {
+                bitBuf = (bitBuf << 8) | (src.get() & 0xFF);
+                bitCount += 8;
+            }
+            if(bitCount < codeLen) {
+                break;
+            }
+            int code = (bitBuf >>> (bitCount - codeLen)) & ((1 << codeLen) - 1);
+            bitCount -= codeLen;
+
+            if(code == EOI) {
+                break;
+            }
+            if(code == CLEAR) {
+                codeLen = 9;
+                next = 258;
+                old = -1;
+                continue;
+            }
+
+            if(old == -1) {
+                if(code > 255) {
+                    throw new IOException("corrupt LZW data in TIFF");
+                }
+                dst[p++] = (byte) code;
+                old = code;
+                continue;
+            }
+
+            int emit;
+            byte firstByte;
+            if(code < next) {
+                emit = code;
+                firstByte = first[code];
+            }
+            else if(code == next) {
+                emit = old;
+                firstByte = first[old];
+            }
+            else {
+                throw new IOException("corrupt LZW data in TIFF");
+            }
+
+            // write the string of emit backwards from its last byte
+            int len = length[emit];
+            int end = p + len;
+            for(int c = emit, q = end - 1; q >= p; q--) {
+                if(q < dst.length) {
+                    dst[q] = suffix[c];
+                }
+                c = prefix[c];
+            }
+            p = end;
+            if(code == next && p < dst.length) {
+                dst[p] = firstByte;
+            }
+            if(code == next) {
+                p++;
+            }
+
+            if(next < 4096) {
+                prefix[next] = (short) old;
+                suffix[next] = firstByte;
+                first[next] = first[old];
+                length[next] = length[old] + 1;
+                next++;
+                if(next == (1 << codeLen) - 1 && codeLen < 12) {
+                    codeLen++;
+                }
+            }
+            old = code;
+        }
+    }
+
+} // class TiffReader
@@ -0,0 +1,203 @@
+/*
+ * Copyright Wen Bian. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list
+ *   of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer listed in this license in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * - Neither the name of the copyright holders nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package us.fibernet.fiberj;
+
+import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.Icon;
+
+/**
+ * An Icon showing pattern display data scaled to the display size, colored tile by tile.
+ *
+ * Only the tiles intersecting the clip of a paint, i.e., the visible part of a scrolled
+ * pattern, are colored and drawn. Tiles are kept in a least recently used cache so panning
+ * back over a region reuses them; the cache is flushed when the data, the color lookup table
+ * or the display size changes. Memory and time thus follow the window, not the pattern.
+ * Used on the Swing event thread only.
+ */
+public final class TileRenderer implements Icon {
+
+    public static final int TILE_SIZE = 256;
+    private static final int MIN_CACHED_TILES = 64;   // 16MB, about two 1600x1200 viewports
+    private static final int MIN_BAND_ROWS = 64;      // fewest rows worth a thread in renderAll()
+
+    private PixelBuffer data;
+    private ColorLut lut;
+    private int width, height;   // display size
+    private int[] columnMap;     // display column to data column
+    private int[] rowMap;        // display row to data row
+
+    private int capacity = MIN_CACHED_TILES;
+
+    @SuppressWarnings("serial")
+    private final Map<Long, BufferedImage> tiles = new LinkedHashMap<Long, BufferedImage>(64, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<Long, BufferedImage> eldest) {
+            return size() > capacity;
+        }
+    };
+
+    /**
+     * Show data colored by lut at width x height. Cached tiles are dropped unless all three
+     * are unchanged.
+     */
+    public void setSource(PixelBuffer data, ColorLut lut, int width, int height) {
+        if(data == this.data && lut == this.lut && width == this.width && height == this.height) {
+            return;
+        }
+        tiles.clear();
+        this.data = data;
+        this.lut = lut;
+        this.width = width;
+        this.height = height;
+        columnMap = scaleMap(width, data.getWidth());
+        rowMap = scaleMap(height, data.getHeight());
+    }
+
+    /** drop all cached tiles */
+    public void flush() {
+        tiles.clear();
+    }
+
+    public int getIconWidth()   { return width;  }
+    public int getIconHeight()  { return height; }
+
+    public void paintIcon(Component c, Graphics g, int x, int y) {
+
+        if(data == null || width < 1 || height < 1) {
+            return;
+        }
+
+        Rectangle area = new Rectangle(x, y, width, height);
+        Rectangle clip = g.getClipBounds();
+        if(clip != null) {
+            area = area.intersection(clip);
+        }
+        if(area.isEmpty()) {
+            return;
+        }
+
+        int tx0 = (area.x - x) / TILE_SIZE;
+        int ty0 = (area.y - y) / TILE_SIZE;
+        int tx1 = (area.x + area.width - 1 - x) / TILE_SIZE;
+        int ty1 = (area.y + area.height - 1 - y) / TILE_SIZE;
+
+        // keep at least two screens worth, or a pan would evict what it is about to reuse
+        capacity = Math.max(capacity, 2 * (tx1 - tx0 + 1) * (ty1 - ty0 + 1));
+
+        // color the missing tiles in parallel, then draw them all
+        final List<Long> missing = new ArrayList<Long>();
+        for(int ty = ty0; ty <= ty1; ty++) {
+            for(int tx = tx0; tx <= tx1; tx++) {
+                Long key = tileKey(tx, ty);
+                if(!tiles.containsKey(key)) {
+                    missing.add(key);
+                }
+            }
+        }
+
+        if(!missing.isEmpty()) {
+            final BufferedImage[] rendered = new BufferedImage[missing.size()];
+            ParallelUtil.forEach(rendered.length, new ParallelUtil.BandTask() {
+                public void run(int from, int to) {
+                    for(int i = from; i < to; i++) {
+                        long key = missing.get(i);
+                        rendered[i] = renderTile((int) key, (int) (key >> 32));
+                    }
+                }
+            });
+            for(int i = 0; i < rendered.length; i++) {
+                tiles.put(missing.get(i), rendered[i]);
+            }
+        }
+
+        for(int ty = ty0; ty <= ty1; ty++) {
+            for(int tx = tx0; tx <= tx1; tx++) {
+                g.drawImage(tiles.get(tileKey(tx, ty)), x + tx * TILE_SIZE, y + ty * TILE_SIZE, null);
+            }
+        }
+    }
+
+    /**
+     * @return  the whole display as one image, rendered in parallel bands of rows
+     *          without going through the tile cache
+     */
+    public BufferedImage renderAll() {
+        BufferedImage im = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final int[] dst = ((DataBufferInt) im.getRaster().getDataBuffer()).getData();
+        ParallelUtil.forEachBand(height, MIN_BAND_ROWS, new ParallelUtil.BandTask() {
+            public void run(int from, int to) {
+                colorize(0, from, width, to - from, dst, from * width, width);
+            }
+        });
+        return im;
+    }
+
+    private BufferedImage renderTile(int tx, int ty) {
+        int x0 = tx * TILE_SIZE;
+        int y0 = ty * TILE_SIZE;
+        int w = Math.min(TILE_SIZE, width - x0);
+        int h = Math.min(TILE_SIZE, height - y0);
+        BufferedImage tile = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        int[] dst = ((DataBufferInt) tile.getRaster().getDataBuffer()).getData();
+        colorize(x0, y0, w, h, dst, 0, w);
+        return tile;
+    }
+
+    // color display pixels [x0, x0 + w) x [y0, y0 + h) into dst, starting at offset with scan pixels per row
+    private void colorize(int x0, int y0, int w, int h, int[] dst, int offset, int scan) {
+        int[] pixels = data.getArray();
+        for(int r = 0; r < h; r++) {
+            int row = data.index(0, rowMap[y0 + r]);
+            for(int c = 0, p = offset + r * scan; c < w; c++) {
+                dst[p++] = lut.lookup(pixels[row + columnMap[x0 + c]]);
+            }
+        }
+    }
+
+    private static Long tileKey(int tx, int ty) {
+        return Long.valueOf(((long) ty << 32) | tx);
+    }
+
+    // nearest neighbour: the source index whose pixel covers the center of each display pixel
+    private static int[] scaleMap(int displaySize, int sourceSize) {
+        int[] map = new int[Math.max(0, displaySize)];
+        for(int i = 0; i < map.length; i++) {
+            map[i] = Math.min(sourceSize - 1, (int) ((i + 0.5) * sourceSize / displaySize));
+        }
+        return map;
+    }
+
+} // class TileRenderer
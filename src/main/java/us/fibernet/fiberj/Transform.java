@@ -32,23 +32,197 @@ package us.fibernet.fiberj;
 * Transform data from detector space to reciprocal space
 *
 */
-enum TransformType {CART, POLAR, RAD};
+enum TransformType {CART, POLAR, RAD, CAKE};
 
 public class Transform {
 
+    private static final double DEFAULT_PHI_STEP = 0.5;  // degree
+
     private TransformType transformType;
     private Pattern myPattern;
 
+    // kept for the geometry it was built for and applied to every frame with that geometry
+    private ResamplePlan reciprocalPlan;
+    private ReciprocalGeometry reciprocalGeometry;
+    private double reciprocalStep;
+    private PolarRemap polarRemap;             // last remaps, reused while they match
+    private PolarRemap polarReciprocalRemap;
+    private AzimuthalIntegrator.Profile cakeSums;   // scratch of the last cake, reused while its size fits
+
     public Transform(Pattern pattern) {
         myPattern = pattern;
     }
     
-    // TODO
+    /**
+     * Map the pattern to a Fraser (R, Z) reciprocal space pattern and display it.
+     * R runs along x, Z up along y, both with R = Z = 0 at the center.
+     */
     public void toReciprocal() {
+        if(myPattern.isRecip()) {
+            UIMain.setMessage(myPattern.getName() + " is in reciprocal space already");
+            return;
+        }
+        if(!myPattern.isParameterDefined(true)) {
+            return;
+        }
+
+        transformType = TransformType.CART;
+        PixelBuffer data = toReciprocal(myPattern.getPixels());
+        Pattern recip = new Pattern(data, myPattern.getName() + " (R, Z)", true);
+        recip.setPixelSize(reciprocalStep);
+        recip.setWavelen(myPattern.getWavelen());
+        recip.setSdd(myPattern.getSdd());
+        recip.setRepeat(myPattern.getRepeat());
+        PatternProcessor.createPatternImage(recip, null);
+    }
+
+    /**
+     * Map a frame with this pattern's size and geometry, e.g., one of a series, to
+     * reciprocal space. The resampling plan is built on the first call and reused as long
+     * as the geometry does not change.
+     */
+    public synchronized PixelBuffer toReciprocal(PixelBuffer frame) {
+        return getReciprocalPlan().apply(frame);
+    }
+
+    /**
+     * @return  step of the (R, Z) grid of the last reciprocal mapping (1/angstrom)
+     */
+    public synchronized double getReciprocalStep() {
+        return reciprocalStep;
+    }
+
+    /**
+     * Remap a frame with this pattern's size to polar (r, phi) about the pattern center,
+     * r in pixels and phi in degrees, see PolarRemap. The remap is reused for later frames
+     * as long as the center and steps stay the same.
+     */
+    public synchronized PixelBuffer toPolar(PixelBuffer frame, double rStep, double phiStep) {
+        int width = myPattern.getWidth();
+        int height = myPattern.getHeight();
+        double centerX = myPattern.getCenterX();
+        double centerY = myPattern.getCenterY();
+        if(polarRemap == null || !polarRemap.matches(width, height, centerX, centerY, rStep, phiStep)) {
+            polarRemap = PolarRemap.inPixels(width, height, centerX, centerY, rStep, phiStep);
+        }
+        return polarRemap.apply(frame);
     }
 
-    // TODO
+    /**
+     * Map the pattern to polar reciprocal space, a row of D for each angle phi about the
+     * beam, and display it
+     */
     public void toPolarReciprocal() {
+        if(myPattern.isRecip()) {
+            UIMain.setMessage(myPattern.getName() + " is in reciprocal space already");
+            return;
+        }
+        if(!myPattern.isParameterDefined(true)) {
+            return;
+        }
+
+        transformType = TransformType.POLAR;
+        PixelBuffer data = toPolarReciprocal(myPattern.getPixels(), DEFAULT_PHI_STEP);
+        PatternProcessor.createPatternImage(new Pattern(data, myPattern.getName() + " (D, phi)", false), null);
+    }
+
+    /**
+     * Map a frame with this pattern's size and geometry to (D, phi): D from 0 to the
+     * largest on the pattern in as many steps as half the pattern's longer side, phi in
+     * steps of phiStep degrees. The remap is reused while the geometry stays the same.
+     */
+    public synchronized PixelBuffer toPolarReciprocal(PixelBuffer frame, double phiStep) {
+        ReciprocalTables tables = myPattern.getReciprocalTables();
+        if(tables == null) {
+            throw new IllegalStateException("reciprocal parameters not defined");
+        }
+        ReciprocalGeometry geometry = tables.getGeometry();
+        double dStep = 2 * tables.getMaxD() / Math.max(geometry.getWidth(), geometry.getHeight());
+        if(polarReciprocalRemap == null || !polarReciprocalRemap.matches(geometry, dStep, phiStep)) {
+            polarReciprocalRemap = PolarRemap.inReciprocal(geometry, tables.getMaxD(), dStep, phiStep);
+        }
+        return polarReciprocalRemap.apply(frame);
+    }
+
+    /**
+     * Regroup the pattern into a (q, chi) cake, a row of q for each azimuth chi, and
+     * display it
+     */
+    public void toCake() {
+        if(myPattern.isRecip()) {
+            UIMain.setMessage(myPattern.getName() + " is in reciprocal space already");
+            return;
+        }
+        if(!myPattern.isParameterDefined(true)) {
+            return;
+        }
+
+        transformType = TransformType.CAKE;
+        PixelBuffer data = toCake(myPattern.getPixels(), null, DEFAULT_PHI_STEP);
+        PatternProcessor.createPatternImage(new Pattern(data, myPattern.getName() + " (q, chi)", false), null);
+    }
+
+    /**
+     * Regroup a frame with this pattern's size and geometry into a (q, chi) cake: the mean
+     * of the unmasked pixels, split by overlap, in bins of q from 0 to the largest on the
+     * pattern in as many steps as half the pattern's longer side, and of chi in 360 /
+     * chiStep steps, rounded, so the bins cover the circle evenly. The lookup table is
+     * reused while the geometry stays the same, so a series costs one pass over it per
+     * frame.
+     *
+     * @param dst  null, or the buffer of the last call to reuse
+     */
+    public synchronized PixelBuffer toCake(PixelBuffer frame, PixelBuffer dst, double chiStep) {
+        if(chiStep <= 0 || chiStep > 360) {
+            throw new IllegalArgumentException("invalid chi step");
+        }
+
+        // whole bins around the circle, as PolarRemap counts its rows
+        int chiCount = Math.max(1, (int) Math.round(360 / chiStep));
+        AzimuthalIntegrator integrator = myPattern.getIntegrator();
+        BinMap map = integrator.getBinMap(BinMap.Unit.Q);
+        int count = Math.max(map.getWidth(), map.getHeight()) / 2;
+        BinLookup table = integrator.getCakeLookup(BinMap.Unit.Q, count, 0, map.getMax(), chiCount, true);
+
+        if(dst == null || dst.getWidth() != count || dst.getHeight() != chiCount) {
+            dst = new PixelBuffer(count, chiCount);
+        }
+        if(cakeSums == null || cakeSums.getSize() != count * chiCount) {
+            cakeSums = new AzimuthalIntegrator.Profile(count * chiCount);
+        }
+        integrator.integrate(frame, table, cakeSums);
+        cakeSums.toImage(dst, 0);
+        return dst;
+    }
+
+    // the plan for the current geometry: a regular (R, Z) grid, as many steps across its
+    // longer side as the pattern has, sampled bilinearly from the detector
+    private ResamplePlan getReciprocalPlan() {
+        ReciprocalTables tables = myPattern.getReciprocalTables();
+        if(tables == null) {
+            throw new IllegalStateException("reciprocal parameters not defined");
+        }
+
+        final ReciprocalGeometry geometry = tables.getGeometry();
+        if(reciprocalPlan != null && geometry.equals(reciprocalGeometry)) {
+            return reciprocalPlan;
+        }
+
+        double maxR = tables.getMaxR();
+        double maxZ = tables.getMaxZ();
+        final double step = 2 * Math.max(maxR, maxZ) / Math.max(geometry.getWidth(), geometry.getHeight());
+        final int halfWidth = (int) Math.ceil(maxR / step);
+        final int halfHeight = (int) Math.ceil(maxZ / step);
+
+        reciprocalPlan = ResamplePlan.build(2 * halfWidth + 1, 2 * halfHeight + 1,
+                geometry.getWidth(), geometry.getHeight(), new ResamplePlan.Mapping() {
+            public boolean map(int x, int y, double[] xy) {
+                return geometry.RZ2xy((x - halfWidth) * step, (halfHeight - y) * step, xy);
+            }
+        });
+        reciprocalGeometry = geometry;
+        reciprocalStep = step;
+        return reciprocalPlan;
     }
 
 } // class Transform
@@ -0,0 +1,195 @@
+/*
+ * Copyright Wen Bian. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list
+ *   of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer listed in this license in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * - Neither the name of the copyright holders nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package us.fibernet.fiberj;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks of pixel splitting on small patterns: the split fractions of every pixel add up
+ * to one, a flat image integrates to a flat profile, and a sector across 0 degree gives
+ * the same bins however its range is written. Centers off and on a pixel center cover the
+ * widening of BinMap at the center and along the rows and columns through it.
+ */
+public class AzimuthalIntegratorTest extends TestCase {
+
+    private static final int WIDTH = 41;
+    private static final int HEIGHT = 33;
+    private static final double EPS = 1e-3;
+
+    public void testFractionsSumToPixelCount() {
+        double[][] centers = { { 17.3, 12.6 }, { 20, 16 } };
+        for(double[] c : centers) {
+            ReciprocalGeometry g = geometry(c[0], c[1]);
+            for(BinMap.Unit unit : BinMap.Unit.values()) {
+                BinMap map = BinMap.build(g, unit);
+                double min = unit.isPeriodic() ? 0 : map.getMin();
+                double max = unit.isPeriodic() ? 360 : map.getMax();
+                for(int count : new int[] { 1, 7, 100 }) {
+                    BinLookup table = BinLookup.build(map, count, min, max, true);
+                    assertEquals(unit + " in " + count + " bins", WIDTH * HEIGHT, total(table), EPS);
+                }
+            }
+        }
+    }
+
+    public void testCakeFractionsSumToPixelCount() {
+        ReciprocalGeometry g = geometry(17.3, 12.6);
+        BinMap q = BinMap.build(g, BinMap.Unit.Q);
+        BinMap chi = BinMap.build(g, BinMap.Unit.AZIMUTH);
+        BinLookup table = BinLookup.build(q, 20, q.getMin(), q.getMax(), chi, 36, 0, 360, true);
+        assertEquals(WIDTH * HEIGHT, total(table), EPS);
+    }
+
+    // without splitting, each pixel is one entry of the bin of its middle
+    public void testEntriesWithoutSplitting() {
+        ReciprocalGeometry g = geometry(17.3, 12.6);
+        BinMap map = BinMap.build(g, BinMap.Unit.RADIUS);
+        int count = 25;
+        double max = map.getMax() + 1;
+        BinLookup table = BinLookup.build(map, count, 0, max, false);
+        assertEquals(WIDTH * HEIGHT, table.getEntryCount());
+
+        PixelBuffer frame = new PixelBuffer(WIDTH, HEIGHT);
+        for(int k = 0; k < WIDTH * HEIGHT; k++) {
+            frame.getArray()[k] = k;
+        }
+        double[] expected = new double[count];
+        for(int k = 0; k < WIDTH * HEIGHT; k++) {
+            double v = (map.getLow()[k] + map.getHigh()[k]) / 2;
+            expected[(int) (v * count / max)] += k;
+        }
+
+        double[] signal = new double[count], variance = new double[count], norm = new double[count];
+        table.integrate(frame, null, signal, variance, norm);
+        for(int i = 0; i < count; i++) {
+            assertEquals("bin " + i, expected[i], signal[i], EPS);
+        }
+    }
+
+    public void testCenterWidening() {
+        ReciprocalGeometry g = geometry(20, 16);
+        BinMap r = BinMap.build(g, BinMap.Unit.RADIUS);
+        assertEquals(0, r.getLow()[16 * WIDTH + 20], 0);
+        assertEquals(0.5 * Math.sqrt(2), r.getHigh()[16 * WIDTH + 20], 1e-6);
+        // on the column and row through the center the nearest point is on an edge, not a corner
+        assertEquals(4.5, r.getLow()[21 * WIDTH + 20], 1e-6);
+        assertEquals(6.5, r.getLow()[16 * WIDTH + 13], 1e-6);
+
+        BinMap chi = BinMap.build(g, BinMap.Unit.AZIMUTH);
+        assertEquals(0, chi.getLow()[16 * WIDTH + 20], 0);
+        assertEquals(360, chi.getHigh()[16 * WIDTH + 20], 0);
+        // right of the center the pixels span 0 degree, unwrapped above 360
+        int k = 16 * WIDTH + 25;
+        assertTrue(chi.getLow()[k] < 360 && chi.getHigh()[k] > 360);
+        assertTrue(chi.getHigh()[k] - chi.getLow()[k] < 180);
+    }
+
+    public void testFlatImageFlatProfile() {
+        double[][] centers = { { 17.3, 12.6 }, { 20, 16 } };
+        for(double[] c : centers) {
+            AzimuthalIntegrator integrator = new AzimuthalIntegrator(pattern(flat(100), c[0], c[1]));
+            for(BinMap.Unit unit : BinMap.Unit.values()) {
+                BinMap map = integrator.getBinMap(unit);
+                AzimuthalIntegrator.Profile p = integrator.integrate(flat(100), unit, 30, map.getMin(), map.getMax(), true);
+                for(int i = 0; i < p.getSize(); i++) {
+                    if(p.getCount()[i] > 0) {
+                        assertEquals(unit + " bin " + i, 100, p.getIntensity()[i], EPS);
+                    }
+                }
+            }
+        }
+    }
+
+    public void testWrappedSector() {
+        AzimuthalIntegrator integrator = new AzimuthalIntegrator(pattern(flat(1), 17.3, 12.6));
+        PixelBuffer frame = ramp();
+        BinMap.Unit r = BinMap.Unit.RADIUS;
+        BinMap.Unit chi = BinMap.Unit.AZIMUTH;
+        double max = integrator.getBinMap(r).getMax();
+
+        AzimuthalIntegrator.Profile wrapped = integrator.integrate(frame, r, 20, 0, max, chi, -20, 20, true);
+        AzimuthalIntegrator.Profile unwrapped = integrator.integrate(frame, r, 20, 0, max, chi, 340, 380, true);
+        AzimuthalIntegrator.Profile below = integrator.integrate(frame, r, 20, 0, max, chi, 340, 360, true);
+        AzimuthalIntegrator.Profile above = integrator.integrate(frame, r, 20, 0, max, chi, 0, 20, true);
+
+        double n = 0;
+        for(int i = 0; i < 20; i++) {
+            assertEquals("bin " + i, wrapped.getCount()[i], unwrapped.getCount()[i], EPS);
+            assertEquals("bin " + i, wrapped.getIntensity()[i], unwrapped.getIntensity()[i], EPS);
+            assertEquals("bin " + i, wrapped.getCount()[i], below.getCount()[i] + above.getCount()[i], EPS);
+            n += wrapped.getCount()[i];
+        }
+        assertTrue(n > 0);
+    }
+
+    private static double total(BinLookup table) {
+        int n = table.getBinCount();
+        double[] signal = new double[n], variance = new double[n], norm = new double[n];
+        table.integrate(new PixelBuffer(WIDTH, HEIGHT), null, signal, variance, norm);
+        double sum = 0;
+        for(double v : norm) {
+            sum += v;
+        }
+        return sum;
+    }
+
+    // 0.1 mm pixels 100 mm from the specimen, 1 angstrom radiation, no tilt
+    private static ReciprocalGeometry geometry(double centerX, double centerY) {
+        return new ReciprocalGeometry(WIDTH, HEIGHT, centerX, centerY, 100, 1, 0.1, 0, 0, 0, 0, false);
+    }
+
+    private static Pattern pattern(PixelBuffer pixels, double centerX, double centerY) {
+        Pattern p = new Pattern(pixels, "test", false);
+        p.setCenterX(centerX);
+        p.setCenterY(centerY);
+        p.setSdd(100);
+        p.setWavelen(1);
+        p.setPixelSize(0.1);
+        return p;
+    }
+
+    private static PixelBuffer flat(int value) {
+        PixelBuffer data = new PixelBuffer(WIDTH, HEIGHT);
+        Arrays.fill(data.getArray(), value);
+        return data;
+    }
+
+    private static PixelBuffer ramp() {
+        PixelBuffer data = new PixelBuffer(WIDTH, HEIGHT);
+        for(int y = 0; y < HEIGHT; y++) {
+            for(int x = 0; x < WIDTH; x++) {
+                data.set(x, y, 3 * x + 7 * y);
+            }
+        }
+        return data;
+    }
+
+} // class AzimuthalIntegratorTest
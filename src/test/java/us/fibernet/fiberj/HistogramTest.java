@@ -0,0 +1,91 @@
+/*
+ * Copyright Wen Bian. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list
+ *   of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer listed in this license in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * - Neither the name of the copyright holders nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package us.fibernet.fiberj;
+
+import junit.framework.TestCase;
+
+/**
+ * Percentiles of histograms with known contents: one count of each value of 0 - 99, so
+ * p percent of the values lie below p, and two spikes with empty bins between them.
+ */
+public class HistogramTest extends TestCase {
+
+    private static final double EPS = 1e-9;
+
+    public void testOneBinPerValue() {
+        Histogram h = Histogram.compute(ramp(), 100, 0, 99);
+        assertEquals(100, h.getTotal());
+        assertEquals(0, h.percentile(0), EPS);
+        assertEquals(50, h.percentile(50), EPS);
+        assertEquals(99.5, h.percentile(99.5), EPS);
+        assertEquals(100, h.percentile(100), EPS);
+    }
+
+    public void testInterpolationWithinBin() {
+        Histogram h = Histogram.compute(ramp(), 10, 0, 99);
+        assertEquals(10, h.getBinWidth(), EPS);
+        assertEquals(25, h.percentile(25), EPS);
+        assertEquals(73, h.percentile(73), EPS);
+    }
+
+    public void testUnderflowAndOverflow() {
+        Histogram h = Histogram.compute(ramp(), 6, 20, 79);
+        assertEquals(20, h.getUnderflow());
+        assertEquals(20, h.getOverflow());
+        assertEquals(0, h.percentile(10), EPS);     // in the underflow, its smallest value
+        assertEquals(50, h.percentile(50), EPS);
+        assertEquals(99, h.percentile(90), EPS);    // in the overflow, its largest value
+    }
+
+    public void testEmptyBinsSkipped() {
+        PixelBuffer data = new PixelBuffer(10, 10);
+        for(int k = 0; k < 100; k++) {
+            data.getArray()[k] = k < 50 ? 5 : 95;
+        }
+        Histogram h = Histogram.compute(data, 10, 0, 99);
+        assertEquals(10, h.percentile(50), EPS);
+        assertEquals(95, h.percentile(75), EPS);
+    }
+
+    public void testPercentClamped() {
+        Histogram h = Histogram.compute(ramp(), 100, 0, 99);
+        assertEquals(h.percentile(0), h.percentile(-5), EPS);
+        assertEquals(h.percentile(100), h.percentile(120), EPS);
+    }
+
+    // 0 - 99 on a 10 x 10 buffer
+    private static PixelBuffer ramp() {
+        PixelBuffer data = new PixelBuffer(10, 10);
+        for(int k = 0; k < 100; k++) {
+            data.getArray()[k] = k;
+        }
+        return data;
+    }
+
+} // class HistogramTest
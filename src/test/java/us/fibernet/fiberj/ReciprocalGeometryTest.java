@@ -0,0 +1,103 @@
+/*
+ * Copyright Wen Bian. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list
+ *   of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer listed in this license in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * - Neither the name of the copyright holders nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package us.fibernet.fiberj;
+
+import junit.framework.TestCase;
+
+/**
+ * Known values of the diffraction geometry: 0.1 mm pixels 100 mm from the specimen and
+ * 1 angstrom radiation, so a pixel 50 columns right of the center is 5 mm off the beam
+ * and scattered by 2theta = atan(5 / 100).
+ */
+public class ReciprocalGeometryTest extends TestCase {
+
+    private static final double SDD = 100;       // mm
+    private static final double PIXEL = 0.1;     // mm
+    private static final double WAVELEN = 1;     // angstrom
+    private static final double EPS = 1e-9;
+
+    private final ReciprocalGeometry geometry =
+        new ReciprocalGeometry(201, 201, 100, 100, SDD, WAVELEN, PIXEL, 0, 0, 0, 0, false);
+
+    public void testTwoThetaAndQOfPixel() {
+        double twoTheta = Math.atan(50 * PIXEL / SDD);
+        double D = 2 * Math.sin(twoTheta / 2) / WAVELEN;
+
+        double[] rzda = new double[4];
+        geometry.xy2RZDA(150, 100, rzda);
+        assertEquals(D, rzda[2], EPS);
+        assertEquals(0.0499532, rzda[2], 1e-7);                 // 1/angstrom
+        assertEquals(0.3138652, 2 * Math.PI * rzda[2], 1e-7);   // q
+        assertEquals(0, rzda[1], EPS);                                           // on the equator
+        assertEquals(Math.cos(twoTheta), rzda[3], EPS);
+
+        // the bin maps of the same pixel hold these values
+        int k = 100 * 201 + 150;
+        BinMap q = BinMap.build(geometry, BinMap.Unit.Q);
+        BinMap tth = BinMap.build(geometry, BinMap.Unit.TWO_THETA);
+        assertTrue(q.getLow()[k] < 2 * Math.PI * D && 2 * Math.PI * D < q.getHigh()[k]);
+        assertTrue(tth.getLow()[k] < Math.toDegrees(twoTheta) && Math.toDegrees(twoTheta) < tth.getHigh()[k]);
+        assertEquals(2.862405, Math.toDegrees(twoTheta), 1e-6);
+    }
+
+    public void testFiberAxisIsVertical() {
+        double[] rzda = new double[4];
+        geometry.xy2RZDA(100, 50, rzda);   // 5 mm above the beam
+        double len = Math.sqrt(SDD * SDD + 25);
+        assertEquals(5 / len / WAVELEN, rzda[1], EPS);
+        assertEquals(Math.sqrt(rzda[2] * rzda[2] - rzda[1] * rzda[1]), Math.abs(rzda[0]), EPS);
+    }
+
+    // the bounds found along the edges are those over every pixel
+    public void testBoundsMatchTables() {
+        ReciprocalGeometry[] geometries = {
+            geometry,
+            new ReciprocalGeometry(120, 90, 30.5, 70.2, SDD, WAVELEN, PIXEL, 0, 0, 0, 0, false),
+            new ReciprocalGeometry(120, 90, -40, 45, 60, 1.5, 0.2, 5, -3, 10, 4, false),
+            new ReciprocalGeometry(120, 90, 61, 44, SDD, WAVELEN, 0.002, 0, 0, 0, 0, true)
+        };
+        for(ReciprocalGeometry g : geometries) {
+            ReciprocalTables tables = ReciprocalTables.build(g);
+            double[] bounds = g.getBounds();
+            assertEquals(tables.getMaxR(), bounds[0], 1e-6);
+            assertEquals(tables.getMaxZ(), bounds[1], 1e-6);
+            assertEquals(tables.getMaxD(), bounds[2], 1e-6);
+        }
+    }
+
+    public void testRoundTrip() {
+        double[] rzda = new double[4];
+        double[] xy = new double[2];
+        geometry.xy2RZDA(163.5, 21.25, rzda);
+        assertTrue(geometry.RZ2xy(rzda[0], rzda[1], xy));
+        assertEquals(163.5, xy[0], 1e-6);
+        assertEquals(21.25, xy[1], 1e-6);
+    }
+
+} // class ReciprocalGeometryTest
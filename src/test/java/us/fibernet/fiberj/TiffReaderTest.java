@@ -0,0 +1,263 @@
+/*
+ * Copyright Wen Bian. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list
+ *   of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer listed in this license in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * - Neither the name of the copyright holders nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package us.fibernet.fiberj;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.plugins.tiff.BaselineTIFFTagSet;
+import javax.imageio.plugins.tiff.TIFFDirectory;
+import javax.imageio.plugins.tiff.TIFFField;
+import javax.imageio.stream.ImageOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Round trips through TiffReader: small images are written by the ImageIO TIFF writer in
+ * each compression, with and without the horizontal predictor, in strips and in tiles,
+ * and read back pixel by pixel.
+ */
+public class TiffReaderTest extends TestCase {
+
+    private static final int WIDTH = 45;    // not a multiple of the tile size, so edge tiles are partial
+    private static final int HEIGHT = 37;
+
+    public void testUncompressed() throws IOException {
+        checkAll(null, false);
+    }
+
+    public void testPackBits() throws IOException {
+        checkAll("PackBits", false);
+    }
+
+    public void testLzw() throws IOException {
+        checkAll("LZW", false);
+    }
+
+    public void testLzwPredictor() throws IOException {
+        checkAll("LZW", true);
+    }
+
+    public void testDeflate() throws IOException {
+        checkAll("Deflate", false);
+    }
+
+    public void testDeflatePredictor() throws IOException {
+        checkAll("Deflate", true);
+    }
+
+    public void testZLib() throws IOException {
+        checkAll("ZLib", false);
+    }
+
+    public void testFirstSampleOfRgb() throws IOException {
+        BufferedImage image = randomImage(BufferedImage.TYPE_3BYTE_BGR, 255);
+        for(String compression : new String[] { null, "LZW", "PackBits", "Deflate" }) {
+            PixelBuffer data = roundTrip(image, compression, false, 0, ByteOrder.BIG_ENDIAN);
+            WritableRaster raster = image.getRaster();
+            for(int y = 0; y < HEIGHT; y++) {
+                for(int x = 0; x < WIDTH; x++) {
+                    assertEquals(compression + " (" + x + ", " + y + ")", raster.getSample(x, y, 0), data.get(x, y));
+                }
+            }
+        }
+    }
+
+    public void testLzwLongRun() throws IOException {
+        // a long run of one value fills the LZW table and exercises the code width changes and resets
+        BufferedImage image = new BufferedImage(600, 400, BufferedImage.TYPE_BYTE_GRAY);
+        WritableRaster raster = image.getRaster();
+        for(int y = 0; y < 400; y++) {
+            for(int x = 0; x < 600; x++) {
+                raster.setSample(x, y, 0, y < 200 ? 7 : (x * 31 + y * 17) & 0xFF);
+            }
+        }
+        check(image, "LZW", false, 0, ByteOrder.BIG_ENDIAN);
+    }
+
+    // 8 and 16 bit gray, both byte orders, strips and tiles
+    private void checkAll(String compression, boolean predictor) throws IOException {
+        int[][] types = { { BufferedImage.TYPE_BYTE_GRAY, 255 }, { BufferedImage.TYPE_USHORT_GRAY, 65535 } };
+        ByteOrder[] orders = { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN };
+        for(int[] type : types) {
+            BufferedImage image = randomImage(type[0], type[1]);
+            for(ByteOrder order : orders) {
+                check(image, compression, predictor, 0, order);
+                check(image, compression, predictor, 16, order);
+            }
+        }
+    }
+
+    private void check(BufferedImage image, String compression, boolean predictor, int tile, ByteOrder order)
+            throws IOException {
+        PixelBuffer data = roundTrip(image, compression, predictor, tile, order);
+        String what = compression + (predictor ? " predictor" : "") + (tile > 0 ? " tiled " : " ") + order;
+        assertEquals(what + " width", image.getWidth(), data.getWidth());
+        assertEquals(what + " height", image.getHeight(), data.getHeight());
+
+        WritableRaster raster = image.getRaster();
+        for(int y = 0; y < image.getHeight(); y++) {
+            for(int x = 0; x < image.getWidth(); x++) {
+                assertEquals(what + " (" + x + ", " + y + ")", raster.getSample(x, y, 0), data.get(x, y));
+            }
+        }
+    }
+
+    // a smooth ramp with noise, so runs, repeats and differencing all occur
+    private static BufferedImage randomImage(int type, int max) {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, type);
+        WritableRaster raster = image.getRaster();
+        Random random = new Random(type);
+        for(int y = 0; y < HEIGHT; y++) {
+            for(int x = 0; x < WIDTH; x++) {
+                int v = (x < 10) ? max : ((x + y) * max / (WIDTH + HEIGHT) + random.nextInt(8)) % (max + 1);
+                for(int b = 0; b < raster.getNumBands(); b++) {
+                    raster.setSample(x, y, b, (v + b * 40) % (max + 1));
+                }
+            }
+        }
+        return image;
+    }
+
+    private static PixelBuffer roundTrip(BufferedImage image, String compression, boolean predictor, int tile,
+                                         ByteOrder order) throws IOException {
+        File file = File.createTempFile("fiberj", ".tif");
+        try {
+            write(image, file, compression, predictor, tile, order);
+            return TiffReader.readImage(file.getPath());
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    // the ImageIO writer only differences 8 bit samples: other sizes are differenced here,
+    // written with the predictor tag it keeps as 1, which is then patched to 2
+    private static void write(BufferedImage image, File file, String compression, boolean predictor, int tile,
+                              ByteOrder order) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("tiff").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if(compression != null) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionType(compression);
+        }
+        if(tile > 0) {
+            param.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setTiling(tile, tile, 0, 0);
+        }
+
+        IIOMetadata streamMetadata = writer.getDefaultStreamMetadata(param);
+        IIOMetadataNode root = new IIOMetadataNode(STREAM_FORMAT);
+        IIOMetadataNode byteOrder = new IIOMetadataNode("ByteOrder");
+        byteOrder.setAttribute("value", order.toString());
+        root.appendChild(byteOrder);
+        streamMetadata.mergeTree(STREAM_FORMAT, root);
+
+        boolean patch = predictor && image.getSampleModel().getSampleSize(0) != 8;
+        IIOMetadata metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(image), param);
+        if(predictor) {
+            TIFFDirectory dir = TIFFDirectory.createFromMetadata(metadata);
+            dir.addTIFFField(new TIFFField(BaselineTIFFTagSet.getInstance().getTag(BaselineTIFFTagSet.TAG_PREDICTOR),
+                                           BaselineTIFFTagSet.PREDICTOR_HORIZONTAL_DIFFERENCING));
+            metadata = dir.getAsMetadata();
+        }
+
+        file.delete();
+        ImageOutputStream out = ImageIO.createImageOutputStream(file);
+        try {
+            writer.setOutput(out);
+            writer.write(streamMetadata, new IIOImage(patch ? difference(image, tile) : image, null, metadata), param);
+        }
+        finally {
+            writer.dispose();
+            out.close();
+        }
+
+        if(patch) {
+            setPredictor(file, order);
+        }
+    }
+
+    private static final String STREAM_FORMAT = "javax_imageio_tiff_stream_1.0";
+
+    // horizontal differencing of every sample, modulo its size, restarting at each tile
+    private static BufferedImage difference(BufferedImage image, int tile) {
+        BufferedImage copy = new BufferedImage(image.getColorModel(), image.copyData(null), false, null);
+        WritableRaster src = image.getRaster();
+        WritableRaster dst = copy.getRaster();
+        int mask = (1 << src.getSampleModel().getSampleSize(0)) - 1;
+        for(int y = 0; y < image.getHeight(); y++) {
+            for(int x = 1; x < image.getWidth(); x++) {
+                if(tile > 0 && x % tile == 0) {
+                    continue;
+                }
+                for(int b = 0; b < src.getNumBands(); b++) {
+                    dst.setSample(x, y, b, (src.getSample(x, y, b) - src.getSample(x - 1, y, b)) & mask);
+                }
+            }
+        }
+        return copy;
+    }
+
+    // set the predictor entry of the first directory to horizontal differencing
+    private static void setPredictor(File file, ByteOrder order) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            MappedByteBuffer b = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+            b.order(order);
+            int ifd = b.getInt(4);
+            int n = b.getShort(ifd) & 0xFFFF;
+            for(int i = 0, entry = ifd + 2; i < n; i++, entry += 12) {
+                if((b.getShort(entry) & 0xFFFF) == BaselineTIFFTagSet.TAG_PREDICTOR) {
+                    b.putShort(entry + 8, (short) BaselineTIFFTagSet.PREDICTOR_HORIZONTAL_DIFFERENCING);
+                    b.force();
+                    return;
+                }
+            }
+            fail("no predictor entry written");
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+} // class TiffReaderTest